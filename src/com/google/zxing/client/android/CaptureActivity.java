@@ -28,6 +28,7 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -41,6 +42,7 @@ import android.view.*;
 import android.widget.*;
 import com.google.zxing.*;
 import com.google.zxing.client.android.camera.CameraManager;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
 import com.google.zxing.client.android.common.list.ListAnimationManager;
 import com.google.zxing.client.android.history.HistoryActivity;
 import com.google.zxing.client.android.history.HistoryItem;
@@ -89,6 +91,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     private CameraManager cameraManager;
     private CaptureActivityHandler handler;
     private Result savedResultToShow;
+    private Bitmap savedBitmapToShow;
     private ViewfinderView viewfinderView;
     private TextView statusView;
     private View resultView;
@@ -273,6 +276,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
             handler = null;
         }
         inactivityTimer.onPause();
+        historyManager.flush();
         ambientLightManager.stop();
         cameraManager.closeDriver();
         if (!hasSurface) {
@@ -382,17 +386,49 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
         if (resultCode == RESULT_OK) {
             if (requestCode == HISTORY_REQUEST_CODE) {
-                int itemNumber = intent.getIntExtra(Intents.History.ITEM_NUMBER, -1);
-                if (itemNumber >= 0) {
-                    HistoryItem historyItem = historyManager.buildHistoryItem(itemNumber);
-                    decodeOrStoreSavedBitmap(null, historyItem.getResult());
+                long itemID = intent.getLongExtra(Intents.History.ITEM_NUMBER, -1L);
+                if (itemID >= 0L) {
+                    new AsyncTaskExecManager().build().execute(new LoadHistoryItemAsyncTask(itemID));
                 }
             }
         }
     }
 
+    /**
+     * Reads a history item and its thumbnail, which touch the database and disk, then shows it.
+     */
+    private final class LoadHistoryItemAsyncTask extends AsyncTask<Object, Object, HistoryItem> {
+
+        private final long itemID;
+        private Bitmap thumbnail;
+
+        LoadHistoryItemAsyncTask(long itemID) {
+            this.itemID = itemID;
+        }
+
+        @Override
+        protected HistoryItem doInBackground(Object... args) {
+            HistoryItem historyItem = historyManager.buildHistoryItem(itemID);
+            if (historyItem != null) {
+                thumbnail = historyManager.buildHistoryThumbnail(itemID);
+            }
+            return historyItem;
+        }
+
+        @Override
+        protected void onPostExecute(HistoryItem historyItem) {
+            if (historyItem != null) {
+                decodeOrStoreSavedBitmap(thumbnail, historyItem.getResult());
+            }
+        }
+
+    }
+
     private void decodeOrStoreSavedBitmap(Bitmap bitmap, Result result) {
-        // Bitmap isn't used yet -- will be used soon
+        if (result != null) {
+            // Shown in place of a live scan's image, which isn't passed along with the result
+            savedBitmapToShow = bitmap;
+        }
         if (handler == null) {
             savedResultToShow = result;
         } else {
@@ -442,7 +478,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
         boolean fromLiveScan = barcode != null;
         if (fromLiveScan) {
-            historyManager.addHistoryItem(rawResult, resultHandler);
+            // Copied, since result points are drawn on the original while the history is written
+            historyManager.addHistoryItem(rawResult, resultHandler, barcode.copy(Bitmap.Config.ARGB_8888, false));
             // Then not from history, so beep/vibrate and we have an image to draw on
 
             if (!barcodeListDialogActive ) {
@@ -538,8 +575,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
         ImageView barcodeImageView = (ImageView) findViewById(R.id.barcode_image_view);
         if (barcode == null) {
-            barcodeImageView.setImageBitmap(BitmapFactory.decodeResource(getResources(),
-                    R.drawable.launcher_icon));
+            if (savedBitmapToShow == null) {
+                barcodeImageView.setImageBitmap(BitmapFactory.decodeResource(getResources(),
+                        R.drawable.launcher_icon));
+            } else {
+                barcodeImageView.setImageBitmap(savedBitmapToShow);
+            }
         } else {
             barcodeImageView.setImageBitmap(barcode);
         }
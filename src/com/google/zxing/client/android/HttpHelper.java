@@ -17,8 +17,12 @@
 package com.google.zxing.client.android;
 
 import android.util.Log;
+import com.google.zxing.client.android.common.CancellationToken;
+import com.google.zxing.client.android.common.CancelledException;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.HttpURLConnection;
@@ -26,18 +30,39 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
 
 /**
- * Utility methods for retrieving content over HTTP using the more-supported {@code java.net} classes
- * in Android.
+ * <p>Utility methods for retrieving content over HTTP using the more-supported {@code java.net} classes
+ * in Android.</p>
+ *
+ * <p>Responses are requested gzipped, and every request is subject to the timeouts set by
+ * {@link #setTimeouts(int, int)}. Connections are not disconnected after a response has been read in
+ * full, so that {@code HttpURLConnection} can return them to its pool of keep-alive connections for
+ * reuse by later requests to the same host.</p>
+ *
+ * <p>Requests may be given a {@link CancellationToken}. Cancelling it disconnects any connection the request
+ * has open, and the request then fails with a {@link CancelledException}.</p>
  */
 public final class HttpHelper {
 
   private static final String TAG = HttpHelper.class.getSimpleName();
 
+  private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+  private static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+  private static final int BUFFER_SIZE = 8192;
+  // Bounds the initial buffer, however long a response claims to be
+  private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static volatile int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+  private static volatile int readTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+
   private static final Collection<String> REDIRECTOR_DOMAINS = new HashSet<String>(Arrays.asList(
     "amzn.to", "bit.ly", "bitly.com", "fb.me", "goo.gl", "is.gd", "j.mp", "lnkd.in", "ow.ly",
     "R.BEETAGG.COM", "r.beetagg.com", "SCN.BY", "su.pr", "t.co", "tinyurl.com", "tr.im"
@@ -57,6 +82,20 @@ public final class HttpHelper {
     TEXT,
   }
 
+  /**
+   * Sets the timeouts applied to subsequent requests.
+   *
+   * @param connectTimeoutMs how long to wait to connect, in milliseconds; 0 waits forever
+   * @param readTimeoutMs how long to wait for each read of the response, in milliseconds; 0 waits forever
+   */
+  public static void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+    if (connectTimeoutMs < 0 || readTimeoutMs < 0) {
+      throw new IllegalArgumentException("Negative timeout");
+    }
+    HttpHelper.connectTimeoutMs = connectTimeoutMs;
+    HttpHelper.readTimeoutMs = readTimeoutMs;
+  }
+
   /**
    * Downloads the entire resource instead of part.
    *
@@ -66,6 +105,16 @@ public final class HttpHelper {
     return downloadViaHttp(uri, type, Integer.MAX_VALUE);
   }
 
+  /**
+   * Downloads the entire resource instead of part.
+   *
+   * @see #downloadViaHttp(String, HttpHelper.ContentType, int, CancellationToken)
+   */
+  public static CharSequence downloadViaHttp(String uri, ContentType type, CancellationToken token)
+      throws IOException {
+    return downloadViaHttp(uri, type, Integer.MAX_VALUE, token);
+  }
+
   /**
    * @param uri URI to retrieve
    * @param type expected text-like MIME type of that content
@@ -74,6 +123,80 @@ public final class HttpHelper {
    * @throws IOException if the content can't be retrieved because of a bad URI, network problem, etc.
    */
   public static CharSequence downloadViaHttp(String uri, ContentType type, int maxChars) throws IOException {
+    return downloadViaHttp(uri, type, maxChars, null);
+  }
+
+  /**
+   * @param uri URI to retrieve
+   * @param type expected text-like MIME type of that content
+   * @param maxChars approximate maximum characters to read from the source
+   * @param token cancels the download; may be {@code null}
+   * @return content as a {@code String}
+   * @throws IOException if the content can't be retrieved because of a bad URI, network problem, etc.
+   */
+  public static CharSequence downloadViaHttp(String uri, ContentType type, int maxChars, CancellationToken token)
+      throws IOException {
+    HttpURLConnection connection = connect(uri, type, token);
+    try {
+      return consume(connection, maxChars, token);
+    } catch (IOException ioe) {
+      throw cancelledOr(ioe, token);
+    } finally {
+      unwatch(connection, token);
+    }
+  }
+
+  /**
+   * Opens the resource for reading as it arrives, decoded from the charset it declares, so that it can
+   * be parsed without first being held in memory in full. The caller must close the reader; doing so
+   * after reading to the end lets the connection be reused.
+   *
+   * @param uri URI to retrieve
+   * @param type expected text-like MIME type of that content
+   * @return reader over the content
+   * @throws IOException if the content can't be retrieved because of a bad URI, network problem, etc.
+   */
+  public static Reader openReader(String uri, ContentType type) throws IOException {
+    return openReader(uri, type, null);
+  }
+
+  /**
+   * @param token cancels the download, including reads from the returned reader; may be {@code null}
+   * @see #openReader(String, HttpHelper.ContentType)
+   */
+  public static Reader openReader(String uri, ContentType type, CancellationToken token) throws IOException {
+    Body body = openStream(uri, type, token);
+    Charset charset = body.getCharset();
+    return new InputStreamReader(body, charset == null ? UTF8 : charset);
+  }
+
+  /**
+   * Opens the resource for reading its bytes as they arrive, for callers that work out the charset
+   * themselves or stop reading early. The caller must close the stream. Closing it before the end
+   * closes the connection, rather than reading the rest just to reuse it.
+   *
+   * @param uri URI to retrieve
+   * @param type expected text-like MIME type of that content
+   * @param token cancels the download, including reads from the returned stream; may be {@code null}
+   * @return stream over the content, already unzipped if it was sent gzipped
+   * @throws IOException if the content can't be retrieved because of a bad URI, network problem, etc.
+   */
+  public static Body openStream(String uri, ContentType type, CancellationToken token) throws IOException {
+    HttpURLConnection connection = connect(uri, type, token);
+    try {
+      return new Body(openInputStream(connection), connection, token);
+    } catch (IOException ioe) {
+      connection.disconnect();
+      unwatch(connection, token);
+      throw cancelledOr(ioe, token);
+    }
+  }
+
+  /**
+   * @return connection with a successful response, to be passed to {@link #unwatch} when done with
+   */
+  private static HttpURLConnection connect(String uri, ContentType type, CancellationToken token)
+      throws IOException {
     String contentTypes;
     switch (type) {
       case HTML:
@@ -89,10 +212,6 @@ public final class HttpHelper {
       default:
         contentTypes = "text/*,*/*";
     }
-    return downloadViaHttp(uri, contentTypes, maxChars);
-  }
-
-  private static CharSequence downloadViaHttp(String uri, String contentTypes, int maxChars) throws IOException {
     int redirects = 0;
     while (redirects < 5) {
       URL url = new URL(uri);
@@ -100,12 +219,16 @@ public final class HttpHelper {
       connection.setInstanceFollowRedirects(true); // Won't work HTTP -> HTTPS or vice versa
       connection.setRequestProperty("Accept", contentTypes);
       connection.setRequestProperty("Accept-Charset", "utf-8,*");
+      connection.setRequestProperty("Accept-Encoding", "gzip");
       connection.setRequestProperty("User-Agent", "ZXing (Android)");
+      watch(connection, token);
+      boolean connected = false;
       try {
         int responseCode = safelyConnect(uri, connection);
         switch (responseCode) {
           case HttpURLConnection.HTTP_OK:
-            return consume(connection, maxChars);
+            connected = true;
+            return connection;
           case HttpURLConnection.HTTP_MOVED_TEMP:
             String location = connection.getHeaderField("Location");
             if (location != null) {
@@ -117,35 +240,115 @@ public final class HttpHelper {
           default:
             throw new IOException("Bad HTTP response: " + responseCode);
         }
+      } catch (IOException ioe) {
+        throw cancelledOr(ioe, token);
       } finally {
-        connection.disconnect();
+        if (!connected) {
+          connection.disconnect();
+          unwatch(connection, token);
+        }
       }
     }
     throw new IOException("Too many redirects");
   }
 
-  private static String getEncoding(URLConnection connection) {
+  private static void watch(HttpURLConnection connection, CancellationToken token) throws CancelledException {
+    if (token != null) {
+      token.register(new Disconnect(connection));
+      checkCancelled(token);
+    }
+  }
+
+  private static void checkCancelled(CancellationToken token) throws CancelledException {
+    if (token != null && token.isCancelled()) {
+      throw new CancelledException();
+    }
+  }
+
+  private static void unwatch(HttpURLConnection connection, CancellationToken token) {
+    if (token != null) {
+      token.unregister(new Disconnect(connection));
+    }
+  }
+
+  /**
+   * @return exception to throw for a failure, which is reported as cancellation if the token was cancelled
+   */
+  private static IOException cancelledOr(IOException ioe, CancellationToken token) {
+    if (token == null || !token.isCancelled() || ioe instanceof CancelledException) {
+      return ioe;
+    }
+    IOException cancelled = new CancelledException();
+    cancelled.initCause(ioe);
+    return cancelled;
+  }
+
+  private static InputStream openInputStream(URLConnection connection) throws IOException {
+    InputStream in = connection.getInputStream();
+    if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+      try {
+        in = new GZIPInputStream(in, BUFFER_SIZE);
+      } catch (IOException ioe) {
+        in.close();
+        throw ioe;
+      }
+    }
+    return in;
+  }
+
+  private static Charset getCharset(URLConnection connection) {
+    Charset charset = getDeclaredCharset(connection);
+    return charset == null ? UTF8 : charset;
+  }
+
+  /**
+   * @return charset named in the Content-Type header, or {@code null} if none is or it isn't supported
+   */
+  private static Charset getDeclaredCharset(URLConnection connection) {
     String contentTypeHeader = connection.getHeaderField("Content-Type");
     if (contentTypeHeader != null) {
       int charsetStart = contentTypeHeader.indexOf("charset=");
       if (charsetStart >= 0) {
-        return contentTypeHeader.substring(charsetStart + "charset=".length());
+        String charsetName = contentTypeHeader.substring(charsetStart + "charset=".length());
+        int charsetEnd = charsetName.indexOf(';');
+        if (charsetEnd >= 0) {
+          charsetName = charsetName.substring(0, charsetEnd);
+        }
+        charsetName = charsetName.replace("\"", "").trim();
+        try {
+          if (Charset.isSupported(charsetName)) {
+            return Charset.forName(charsetName);
+          }
+        } catch (IllegalCharsetNameException icne) {
+          // fall through
+        }
+        Log.w(TAG, "Unsupported charset " + charsetName);
       }
     }
-    return "UTF-8";
+    return null;
   }
 
-  private static CharSequence consume(URLConnection connection, int maxChars) throws IOException {
-    String encoding = getEncoding(connection);
-    StringBuilder out = new StringBuilder();
+  private static CharSequence consume(HttpURLConnection connection, int maxChars, CancellationToken token)
+      throws IOException {
+    int capacity = connection.getContentEncoding() == null ? connection.getContentLength() : -1;
+    StringBuilder out = new StringBuilder(capacity < 0 ? 16 : Math.min(capacity, MAX_INITIAL_CAPACITY));
     Reader in = null;
     try {
-      in = new InputStreamReader(connection.getInputStream(), encoding);
-      char[] buffer = new char[1024];
+      in = new InputStreamReader(openInputStream(connection), getCharset(connection));
+      char[] buffer = new char[BUFFER_SIZE];
       int charsRead;
       while (out.length() < maxChars && (charsRead = in.read(buffer)) > 0) {
         out.append(buffer, 0, charsRead);
+        // Disconnecting doesn't interrupt a blocked read on every platform, so check between reads too
+        checkCancelled(token);
       }
+      if (out.length() >= maxChars) {
+        // The rest is unwanted, so the connection can't be reused without first reading it
+        connection.disconnect();
+      }
+    } catch (IOException ioe) {
+      connection.disconnect();
+      throw ioe;
     } finally {
       if (in != null) {
         try {
@@ -161,17 +364,28 @@ public final class HttpHelper {
   }
 
   public static URI unredirect(URI uri) throws IOException {
-    if (!REDIRECTOR_DOMAINS.contains(uri.getHost())) {
+    return unredirect(uri, null);
+  }
+
+  /**
+   * @param uri URI that may be a short link
+   * @param token cancels the request; may be {@code null}
+   * @return where a known link shortener redirects the URI to, or the URI itself
+   */
+  public static URI unredirect(URI uri, CancellationToken token) throws IOException {
+    if (!isRedirector(uri)) {
       return uri;
     }
     URL url = uri.toURL();
     HttpURLConnection connection = safelyOpenConnection(url);
     connection.setInstanceFollowRedirects(false);
-    connection.setDoInput(false);
     connection.setRequestMethod("HEAD");
     connection.setRequestProperty("User-Agent", "ZXing (Android)");
+    boolean responded = false;
     try {
+      watch(connection, token);
       int responseCode = safelyConnect(uri.toString(), connection);
+      responded = true;
       switch (responseCode) {
         case HttpURLConnection.HTTP_MULT_CHOICE:
         case HttpURLConnection.HTTP_MOVED_PERM:
@@ -188,7 +402,37 @@ public final class HttpHelper {
           }
       }
       return uri;
+    } catch (IOException ioe) {
+      throw cancelledOr(ioe, token);
     } finally {
+      if (responded) {
+        release(connection);
+      } else {
+        connection.disconnect();
+      }
+      unwatch(connection, token);
+    }
+  }
+
+  /**
+   * @return true if the URI is on a known link shortener's domain, which {@link #unredirect} resolves
+   */
+  public static boolean isRedirector(URI uri) {
+    return REDIRECTOR_DOMAINS.contains(uri.getHost());
+  }
+
+  /**
+   * Closes the body of a response that has none worth reading, like one to a HEAD request, so that its
+   * connection can be reused.
+   */
+  private static void release(HttpURLConnection connection) {
+    try {
+      InputStream in = connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST ?
+          connection.getInputStream() : connection.getErrorStream();
+      if (in != null) {
+        in.close();
+      }
+    } catch (IOException ioe) {
       connection.disconnect();
     }
   }
@@ -205,6 +449,8 @@ public final class HttpHelper {
     if (!(conn instanceof HttpURLConnection)) {
       throw new IOException();
     }
+    conn.setConnectTimeout(connectTimeoutMs);
+    conn.setReadTimeout(readTimeoutMs);
     return (HttpURLConnection) conn;
   }
 
@@ -241,4 +487,89 @@ public final class HttpHelper {
     }
   }
 
+  private static final class Disconnect implements Runnable {
+
+    private final HttpURLConnection connection;
+
+    Disconnect(HttpURLConnection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public void run() {
+      connection.disconnect();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Disconnect && connection == ((Disconnect) o).connection;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(connection);
+    }
+
+  }
+
+  /**
+   * A response body. Reads that fail because the request was cancelled throw {@link CancelledException}.
+   */
+  public static final class Body extends FilterInputStream {
+
+    private final HttpURLConnection connection;
+    private final CancellationToken token;
+    private boolean ended;
+
+    private Body(InputStream in, HttpURLConnection connection, CancellationToken token) {
+      super(in);
+      this.connection = connection;
+      this.token = token;
+    }
+
+    /**
+     * @return charset named by the response's Content-Type header, or {@code null} if none was
+     */
+    public Charset getCharset() {
+      return getDeclaredCharset(connection);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        int b = super.read();
+        checkCancelled(token);
+        ended |= b < 0;
+        return b;
+      } catch (IOException ioe) {
+        throw cancelledOr(ioe, token);
+      }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      try {
+        int bytesRead = super.read(buffer, offset, length);
+        checkCancelled(token);
+        ended |= bytesRead < 0;
+        return bytesRead;
+      } catch (IOException ioe) {
+        throw cancelledOr(ioe, token);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (!ended) {
+          connection.disconnect();
+        }
+        super.close();
+      } finally {
+        unwatch(connection, token);
+      }
+    }
+
+  }
+
 }
@@ -165,6 +165,9 @@ public final class Intents {
 
   public static final class History {
 
+    /**
+     * Row ID (a {@code long}) of the history item the user picked.
+     */
     public static final String ITEM_NUMBER = "ITEM_NUMBER";
 
     private History() {
@@ -205,6 +208,25 @@ public final class Intents {
      */
     public static final String SHOW_CONTENTS = "ENCODE_SHOW_CONTENTS";
 
+    /**
+     * Send this intent to encode many payloads into sheets of printable labels, which are then offered for
+     * sharing as a PDF, or PNG files; see {@link #BATCH_PNG}. Supply a CSV file, one payload per line in its
+     * first column, as the intent's data with a MIME type like text/csv, or as
+     * {@link android.content.Intent#EXTRA_STREAM}; grant read access if it's a content URI. Every line is a
+     * payload unless {@link #BATCH_HEADER} is set. The format is given by {@link #FORMAT}.
+     */
+    public static final String BATCH_ACTION = "com.google.zxing.client.android.ENCODE_BATCH";
+
+    /**
+     * With {@link #BATCH_ACTION}, set this boolean to true if the CSV's first line is a header, to skip it.
+     */
+    public static final String BATCH_HEADER = "ENCODE_BATCH_HEADER";
+
+    /**
+     * With {@link #BATCH_ACTION}, set this boolean to true to get a PNG file per page instead of one PDF.
+     */
+    public static final String BATCH_PNG = "ENCODE_BATCH_PNG";
+
     private Encode() {
     }
   }
@@ -36,6 +36,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -44,6 +45,7 @@ import com.google.zxing.client.android.Intents;
 import com.google.zxing.client.android.HttpHelper;
 import com.google.zxing.client.android.LocaleManager;
 import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.common.StreamingJSONParser;
 import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
 import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
 
@@ -187,8 +189,16 @@ public final class SearchBookContentsActivity extends Activity {
         } else {
           uri = "http://www.google.com/books?vid=isbn" + theIsbn + "&jscmd=SearchWithinVolume2&q=" + theQuery;
         }
-        CharSequence content = HttpHelper.downloadViaHttp(uri, HttpHelper.ContentType.JSON);
-        return new JSONObject(content.toString());
+        Reader in = HttpHelper.openReader(uri, HttpHelper.ContentType.JSON);
+        try {
+          Object value = StreamingJSONParser.parse(in);
+          if (!(value instanceof JSONObject)) {
+            throw new JSONException("Not an object: " + value);
+          }
+          return (JSONObject) value;
+        } finally {
+          in.close();
+        }
       } catch (IOException ioe) {
         Log.w(TAG, "Error accessing book search", ioe);
         return null;
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lets work in progress, possibly on several threads, be cancelled at once. Work registers an action that
+ * stops it, like disconnecting a connection it's blocked reading from, and unregisters it when done.
+ * Cancelling runs all actions registered at that point, and any registered later runs at once.
+ */
+public final class CancellationToken {
+
+  private final Collection<Runnable> onCancel; // guarded by this
+  private boolean cancelled; // guarded by this
+
+  public CancellationToken() {
+    onCancel = new ArrayList<Runnable>();
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  public void cancel() {
+    List<Runnable> actions;
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      actions = new ArrayList<Runnable>(onCancel);
+      onCancel.clear();
+    }
+    // Run without holding the lock, as they may block or call back in
+    for (Runnable action : actions) {
+      action.run();
+    }
+  }
+
+  /**
+   * @param action run when this is cancelled, or at once if it already has been
+   */
+  public void register(Runnable action) {
+    synchronized (this) {
+      if (!cancelled) {
+        onCancel.add(action);
+        return;
+      }
+    }
+    action.run();
+  }
+
+  public synchronized void unregister(Runnable action) {
+    onCancel.remove(action);
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.common;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Parses JSON as it's read, into the same {@link JSONObject} and {@link JSONArray} values that
+ * {@link JSONTokener} produces, without first reading it all into a {@code String}. Before Honeycomb
+ * there's no streaming JSON parser in the platform, so there it's read into a {@code String} first after all.
+ */
+public final class StreamingJSONParser {
+
+  private StreamingJSONParser() {
+  }
+
+  /**
+   * @param in JSON text; not closed
+   * @return {@link JSONObject}, {@link JSONArray}, {@code String}, {@code Boolean}, {@code Long}, {@code Double}
+   *  or {@link JSONObject#NULL}
+   */
+  public static Object parse(Reader in) throws IOException, JSONException {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      return parseStreaming(in);
+    }
+    StringBuilder content = new StringBuilder();
+    char[] buffer = new char[4096];
+    int charsRead;
+    while ((charsRead = in.read(buffer)) > 0) {
+      content.append(buffer, 0, charsRead);
+    }
+    return new JSONTokener(content.toString()).nextValue();
+  }
+
+  @TargetApi(11)
+  private static Object parseStreaming(Reader in) throws IOException, JSONException {
+    JsonReader reader = new JsonReader(in);
+    reader.setLenient(true);
+    try {
+      return readValue(reader);
+    } catch (IllegalStateException ise) {
+      // Thrown for malformed JSON
+      throw new JSONException(ise.toString());
+    }
+  }
+
+  @TargetApi(11)
+  private static Object readValue(JsonReader reader) throws IOException, JSONException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          object.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return object;
+      case BEGIN_ARRAY:
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          array.put(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        String number = reader.nextString();
+        try {
+          return Long.valueOf(number);
+        } catch (NumberFormatException nfe) {
+          return Double.valueOf(number);
+        }
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return JSONObject.NULL;
+      default:
+        throw new JSONException("Unexpected " + reader.peek());
+    }
+  }
+
+}
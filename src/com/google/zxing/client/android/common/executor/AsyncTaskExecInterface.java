@@ -18,8 +18,16 @@ package com.google.zxing.client.android.common.executor;
 
 import android.os.AsyncTask;
 
+import java.util.concurrent.Executor;
+
 public interface AsyncTaskExecInterface {
 
   <T> void execute(AsyncTask<T,?,?> task, T... args);
 
+  /**
+   * Like {@link #execute(AsyncTask, Object[])}, but runs the task on the given executor where the
+   * platform allows it.
+   */
+  <T> void execute(Executor executor, AsyncTask<T,?,?> task, T... args);
+
 }
@@ -18,9 +18,12 @@ package com.google.zxing.client.android.common.executor;
 
 import android.os.AsyncTask;
 
+import java.util.concurrent.Executor;
+
 /**
  * Before Honeycomb, {@link AsyncTask} uses parallel execution by default, which is desired. Good thing
- * too since there is no API to request otherwise.
+ * too since there is no API to request otherwise. For the same reason, tasks can't be run on another
+ * {@link Executor}, and run on {@link AsyncTask}'s own instead.
  */
 public final class DefaultAsyncTaskExecInterface implements AsyncTaskExecInterface {
 
@@ -29,4 +32,9 @@ public final class DefaultAsyncTaskExecInterface implements AsyncTaskExecInterfa
     task.execute(args);
   }
 
+  @Override
+  public <T> void execute(Executor executor, AsyncTask<T,?,?> task, T... args) {
+    task.execute(args);
+  }
+
 }
@@ -19,6 +19,8 @@ package com.google.zxing.client.android.common.executor;
 import android.annotation.TargetApi;
 import android.os.AsyncTask;
 
+import java.util.concurrent.Executor;
+
 /**
  * On Honeycomb and later, {@link AsyncTask} returns to serial execution by default which is undesirable.
  * This calls Honeycomb-only APIs to request parallel execution.
@@ -31,4 +33,9 @@ public final class HoneycombAsyncTaskExecInterface implements AsyncTaskExecInter
     task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, args);
   }
 
+  @Override
+  public <T> void execute(Executor executor, AsyncTask<T,?,?> task, T... args) {
+    task.executeOnExecutor(executor, args);
+  }
+
 }
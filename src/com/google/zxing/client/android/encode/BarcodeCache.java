@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.encode;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Keeps barcodes already rendered, keyed by {@link QRCodeEncoder#getBitmapKey(Bitmap.Config)}, so that
+ * showing or sharing the same one again needn't encode it. They're kept in memory, up to
+ * {@link #MAX_MEMORY_BYTES}, and as PNG files, up to {@link #MAX_DISK_BYTES}, evicting the least recently
+ * used; last use of a file is recorded in its modification time, so it survives restarts.</p>
+ *
+ * <p>{@link #getCached(String)} and {@link #put(String, Bitmap)} may be called from any thread; the latter
+ * writes the file in the background. The other methods touch the disk.</p>
+ */
+final class BarcodeCache {
+
+  private static final String TAG = BarcodeCache.class.getSimpleName();
+
+  private static final String DIR_NAME = "barcodes";
+  private static final String SUFFIX = ".png";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // Temp files this old were left by a crash, rather than being written
+  private static final long STALE_TEMP_MS = 60L * 1000L;
+  private static final long MAX_DISK_BYTES = 4L * 1024L * 1024L;
+  private static final int MAX_MEMORY_BYTES = 4 * 1024 * 1024;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final Executor WRITER = Executors.newSingleThreadExecutor();
+
+  private static BarcodeCache instance;
+
+  private final File dir;
+  // Both in least- to most-recently used order; disk is keyed by file name
+  private final Map<String,Long> diskSizes; // guarded by this
+  private final Map<String,Bitmap> memory; // guarded by itself
+  private long diskBytes; // guarded by this
+  private boolean indexed; // guarded by this
+  private int memoryBytes; // guarded by memory
+
+  private BarcodeCache(File dir) {
+    this.dir = dir;
+    diskSizes = new LinkedHashMap<String,Long>(16, 0.75f, true);
+    memory = new LinkedHashMap<String,Bitmap>(16, 0.75f, true);
+  }
+
+  static synchronized BarcodeCache getInstance(Context context) {
+    if (instance == null) {
+      instance = new BarcodeCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+    }
+    return instance;
+  }
+
+  /**
+   * @return the barcode if it's in memory, else {@code null}
+   */
+  Bitmap getCached(String key) {
+    synchronized (memory) {
+      return memory.get(key);
+    }
+  }
+
+  /**
+   * @return the barcode from memory or else disk, or {@code null} if it's in neither
+   */
+  Bitmap load(String key, Bitmap.Config config) {
+    Bitmap bitmap = getCached(key);
+    if (bitmap != null) {
+      return bitmap;
+    }
+    File file = getFile(key);
+    if (file == null) {
+      return null;
+    }
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inPreferredConfig = config;
+    bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    if (bitmap == null) {
+      Log.w(TAG, "Couldn't decode " + file);
+      remove(key);
+    } else {
+      cache(key, bitmap);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Keeps the barcode in memory now, and writes it to disk in the background.
+   */
+  void put(final String key, final Bitmap bitmap) {
+    cache(key, bitmap);
+    WRITER.execute(new Runnable() {
+      @Override
+      public void run() {
+        save(key, bitmap);
+      }
+    });
+  }
+
+  /**
+   * @return the barcode's PNG file, marked as most recently used, or {@code null} if it's not on disk
+   */
+  synchronized File getFile(String key) {
+    index();
+    String name = fileNameFor(key);
+    if (diskSizes.get(name) == null) {
+      return null;
+    }
+    File file = new File(dir, name);
+    if (!file.setLastModified(System.currentTimeMillis())) {
+      Log.w(TAG, "Couldn't touch " + file);
+    }
+    return file;
+  }
+
+  /**
+   * Writes the barcode to disk now, unless it's there already. It's compressed without holding the cache's
+   * lock, so that {@link #getFile(String)} and other saves don't wait on it.
+   *
+   * @return its PNG file, or {@code null} if it couldn't be written
+   */
+  File save(String key, Bitmap bitmap) {
+    File existing = getFile(key);
+    if (existing != null) {
+      return existing;
+    }
+    if (!dir.exists() && !dir.mkdirs()) {
+      Log.w(TAG, "Couldn't make dir " + dir);
+      return null;
+    }
+    String name = fileNameFor(key);
+    File tempFile;
+    OutputStream out = null;
+    try {
+      // Named uniquely, in case another thread is saving the same barcode
+      tempFile = File.createTempFile(name, TEMP_SUFFIX, dir);
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't create temp file in " + dir + " due to " + ioe);
+      return null;
+    }
+    try {
+      out = new BufferedOutputStream(new FileOutputStream(tempFile));
+      bitmap.compress(Bitmap.CompressFormat.PNG, 0, out);
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't write " + tempFile + " due to " + ioe);
+      deleteTemp(tempFile);
+      return null;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException ioe) {
+          // do nothing
+        }
+      }
+    }
+    return install(name, tempFile);
+  }
+
+  private synchronized File install(String name, File tempFile) {
+    index();
+    File file = new File(dir, name);
+    if (diskSizes.get(name) != null) {
+      // Saved meanwhile by another thread
+      deleteTemp(tempFile);
+      return file;
+    }
+    // Replaced in one step, so that a crash while writing leaves no partial file to be read later
+    if (!tempFile.renameTo(file)) {
+      Log.w(TAG, "Couldn't replace " + file);
+      deleteTemp(tempFile);
+      return null;
+    }
+    diskSizes.put(name, file.length());
+    diskBytes += file.length();
+    trimDisk();
+    return file;
+  }
+
+  private static void deleteTemp(File tempFile) {
+    if (!tempFile.delete()) {
+      Log.w(TAG, "Couldn't delete " + tempFile);
+    }
+  }
+
+  private synchronized void remove(String key) {
+    String name = fileNameFor(key);
+    Long size = diskSizes.remove(name);
+    if (size != null) {
+      diskBytes -= size;
+      File file = new File(dir, name);
+      if (!file.delete()) {
+        Log.w(TAG, "Couldn't delete " + file);
+      }
+    }
+  }
+
+  private void cache(String key, Bitmap bitmap) {
+    int size = bitmap.getRowBytes() * bitmap.getHeight();
+    if (size > MAX_MEMORY_BYTES) {
+      return;
+    }
+    synchronized (memory) {
+      Bitmap old = memory.put(key, bitmap);
+      memoryBytes += size - (old == null ? 0 : old.getRowBytes() * old.getHeight());
+      Iterator<Bitmap> eldest = memory.values().iterator();
+      while (memoryBytes > MAX_MEMORY_BYTES && eldest.hasNext()) {
+        Bitmap evicted = eldest.next();
+        memoryBytes -= evicted.getRowBytes() * evicted.getHeight();
+        eldest.remove();
+      }
+    }
+  }
+
+  // Called holding this
+  private void index() {
+    if (indexed) {
+      return;
+    }
+    indexed = true;
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long aModified = a.lastModified();
+        long bModified = b.lastModified();
+        return aModified < bModified ? -1 : aModified > bModified ? 1 : 0;
+      }
+    });
+    long staleTempModified = System.currentTimeMillis() - STALE_TEMP_MS;
+    for (File file : files) {
+      if (file.getName().endsWith(SUFFIX)) {
+        diskSizes.put(file.getName(), file.length());
+        diskBytes += file.length();
+      } else if (file.getName().endsWith(TEMP_SUFFIX) && file.lastModified() < staleTempModified) {
+        deleteTemp(file);
+      }
+    }
+    trimDisk();
+  }
+
+  // Called holding this
+  private void trimDisk() {
+    Iterator<Map.Entry<String,Long>> eldest = diskSizes.entrySet().iterator();
+    while (diskBytes > MAX_DISK_BYTES && eldest.hasNext()) {
+      Map.Entry<String,Long> entry = eldest.next();
+      File file = new File(dir, entry.getKey());
+      if (!file.delete()) {
+        Log.w(TAG, "Couldn't delete " + file);
+      }
+      diskBytes -= entry.getValue();
+      eldest.remove();
+    }
+  }
+
+  private static String fileNameFor(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(key.getBytes(UTF8));
+      StringBuilder name = new StringBuilder(hash.length * 2 + SUFFIX.length());
+      for (byte b : hash) {
+        name.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+      }
+      return name.append(SUFFIX).toString();
+    } catch (NoSuchAlgorithmException nsae) {
+      // Can't happen; SHA-1 is always available
+      throw new IllegalStateException(nsae);
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.encode;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * <p>Draws a barcode encoded at one bit per module into a {@link Bitmap}, scaled up by the largest whole
+ * number of pixels per module that fits and centered, as the writers would themselves when asked for a
+ * larger matrix. A one-row matrix, from a 1D format, is stretched to the full height.</p>
+ *
+ * <p>Each row of modules is read with {@link BitMatrix#getRow(int, BitArray)}, and each run of dark modules
+ * in it drawn as one rectangle, so the cost is in the number of modules rather than pixels, and no pixel
+ * array is needed.</p>
+ */
+final class BarcodeRenderer {
+
+  private BarcodeRenderer() {
+  }
+
+  /**
+   * @param config {@link Bitmap.Config#RGB_565} halves the memory of {@link Bitmap.Config#ARGB_8888};
+   *  {@link Bitmap.Config#ALPHA_8} quarters it, with light modules left transparent
+   * @return bitmap at least {@code width} by {@code height}; bigger if the barcode can't fit at one pixel per
+   *  module
+   */
+  static Bitmap render(BitMatrix matrix, int width, int height, Bitmap.Config config) {
+    int matrixWidth = matrix.getWidth();
+    int matrixHeight = matrix.getHeight();
+    int outputWidth = Math.max(width, matrixWidth);
+    int outputHeight = oneDimensional(matrix) ? Math.max(height, 1) : Math.max(height, matrixHeight);
+    Bitmap bitmap = Bitmap.createBitmap(outputWidth, outputHeight, config);
+    bitmap.eraseColor(config == Bitmap.Config.ALPHA_8 ? Color.TRANSPARENT : Color.WHITE);
+    Paint paint = new Paint();
+    paint.setColor(Color.BLACK);
+    draw(matrix, new Canvas(bitmap), paint, 0, 0, outputWidth, outputHeight);
+    return bitmap;
+  }
+
+  /**
+   * Draws the dark modules of a barcode, scaled and centered in the given area as by
+   * {@link #render(BitMatrix, int, int, Bitmap.Config)}, leaving light modules as they are.
+   */
+  static void draw(BitMatrix matrix, Canvas canvas, Paint paint, int left, int top, int width, int height) {
+    int matrixWidth = matrix.getWidth();
+    int matrixHeight = matrix.getHeight();
+    boolean oneDimensional = oneDimensional(matrix);
+    int scale = oneDimensional ? width / matrixWidth : Math.min(width / matrixWidth, height / matrixHeight);
+    if (scale < 1) {
+      scale = 1;
+    }
+    int rowHeight = oneDimensional ? Math.max(height, 1) : scale;
+    int codeLeft = left + (width - matrixWidth * scale) / 2;
+    int codeTop = top + (height - matrixHeight * rowHeight) / 2;
+    BitArray row = null;
+    for (int y = 0; y < matrixHeight; y++) {
+      row = matrix.getRow(y, row);
+      int rowTop = codeTop + y * rowHeight;
+      int x = row.getNextSet(0);
+      while (x < matrixWidth) {
+        int end = row.getNextUnset(x);
+        canvas.drawRect(codeLeft + x * scale, rowTop, codeLeft + end * scale, rowTop + rowHeight, paint);
+        x = row.getNextSet(end);
+      }
+    }
+  }
+
+  private static boolean oneDimensional(BitMatrix matrix) {
+    return matrix.getHeight() == 1;
+  }
+
+}
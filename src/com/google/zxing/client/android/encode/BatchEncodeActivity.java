@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.encode;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Environment;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.client.android.FinishListener;
+import com.google.zxing.client.android.Intents;
+import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Handles {@link Intents.Encode#BATCH_ACTION}: encodes each payload in a CSV file into sheets of labels,
+ * with {@link BatchEncoder}, and then offers to share them as one PDF, or as PNG pages.
+ */
+public final class BatchEncodeActivity extends Activity {
+
+  private static final String TAG = BatchEncodeActivity.class.getSimpleName();
+
+  // A4 at 150 dpi, with 3 by 8 labels
+  private static final int PAGE_WIDTH = 1240;
+  private static final int PAGE_HEIGHT = 1754;
+  private static final int DPI = 150;
+  private static final int COLUMNS = 3;
+  private static final int ROWS = 8;
+
+  private BatchEncodeTask batchEncodeTask;
+  private boolean batchEncodeTaskRetained;
+  private final AsyncTaskExecInterface taskExec;
+
+  public BatchEncodeActivity() {
+    taskExec = new AsyncTaskExecManager().build();
+  }
+
+  @Override
+  public void onCreate(Bundle icicle) {
+    super.onCreate(icicle);
+    Intent intent = getIntent();
+    if (intent == null || !Intents.Encode.BATCH_ACTION.equals(intent.getAction())) {
+      finish();
+      return;
+    }
+    Uri csvUri = intent.getData();
+    if (csvUri == null) {
+      csvUri = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+    }
+    if (csvUri == null) {
+      Log.w(TAG, "No CSV to encode");
+      finish();
+      return;
+    }
+    setContentView(R.layout.encode);
+    findViewById(R.id.encode_progress).setVisibility(View.VISIBLE);
+    ((TextView) findViewById(R.id.contents_text_view)).setText(R.string.msg_batch_encoding);
+
+    // Still encoding, or done, for the activity this replaces after a configuration change
+    batchEncodeTask = (BatchEncodeTask) getLastNonConfigurationInstance();
+    if (batchEncodeTask == null) {
+      BarcodeFormat format = BarcodeFormat.QR_CODE;
+      String formatString = intent.getStringExtra(Intents.Encode.FORMAT);
+      if (formatString != null) {
+        try {
+          format = BarcodeFormat.valueOf(formatString);
+        } catch (IllegalArgumentException iae) {
+          // Ignore it then
+        }
+      }
+      File bsRoot = new File(Environment.getExternalStorageDirectory(), "BarcodeScanner");
+      File labelsRoot = new File(bsRoot, "Labels");
+      batchEncodeTask = new BatchEncodeTask(getContentResolver(),
+                                            csvUri,
+                                            intent.getBooleanExtra(Intents.Encode.BATCH_HEADER, false),
+                                            format,
+                                            intent.getBooleanExtra(Intents.Encode.BATCH_PNG, false),
+                                            labelsRoot,
+                                            "labels-" + System.currentTimeMillis());
+      taskExec.execute(batchEncodeTask);
+    }
+  }
+
+  @Override
+  public Object onRetainNonConfigurationInstance() {
+    batchEncodeTaskRetained = batchEncodeTask != null;
+    return batchEncodeTask;
+  }
+
+  @Override
+  protected void onResume() {
+    super.onResume();
+    if (batchEncodeTask != null) {
+      batchEncodeTask.attach(this);
+    }
+  }
+
+  @Override
+  protected void onPause() {
+    if (batchEncodeTask != null) {
+      batchEncodeTask.detach();
+    }
+    super.onPause();
+  }
+
+  @Override
+  protected void onDestroy() {
+    if (batchEncodeTask != null && !batchEncodeTaskRetained) {
+      batchEncodeTask.cancel(true);
+      batchEncodeTask = null;
+    }
+    super.onDestroy();
+  }
+
+  /**
+   * @param pages PNG pages, or one PDF
+   */
+  private void sharePages(List<File> pages) {
+    if (pages == null || pages.isEmpty()) {
+      showErrorMessage(R.string.msg_batch_encode_failed);
+      return;
+    }
+    Intent intent;
+    if (pages.get(0).getName().endsWith(".pdf")) {
+      intent = new Intent(Intent.ACTION_SEND);
+      intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(pages.get(0)));
+      intent.setType("application/pdf");
+    } else {
+      ArrayList<Uri> uris = new ArrayList<Uri>(pages.size());
+      for (File page : pages) {
+        uris.add(Uri.fromFile(page));
+      }
+      intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+      intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+      intent.setType("image/png");
+    }
+    intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.app_name));
+    intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
+    startActivity(Intent.createChooser(intent, null));
+    finish();
+  }
+
+  private void showErrorMessage(int message) {
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setMessage(message);
+    builder.setPositiveButton(R.string.button_ok, new FinishListener(this));
+    builder.setOnCancelListener(new FinishListener(this));
+    builder.show();
+  }
+
+  /**
+   * Reads the CSV and writes the pages in the background. It's kept across configuration changes, reporting
+   * to whichever activity is attached.
+   */
+  private static final class BatchEncodeTask extends AsyncTask<Object,Object,List<File>> {
+
+    private final ContentResolver contentResolver;
+    private final Uri csvUri;
+    private final boolean header;
+    private final BarcodeFormat format;
+    private final boolean png;
+    private final File dir;
+    private final String baseName;
+    // These are only accessed from the main thread
+    private BatchEncodeActivity activity;
+    private List<File> pages;
+    private boolean done;
+
+    BatchEncodeTask(ContentResolver contentResolver,
+                    Uri csvUri,
+                    boolean header,
+                    BarcodeFormat format,
+                    boolean png,
+                    File dir,
+                    String baseName) {
+      this.contentResolver = contentResolver;
+      this.csvUri = csvUri;
+      this.header = header;
+      this.format = format;
+      this.png = png;
+      this.dir = dir;
+      this.baseName = baseName;
+    }
+
+    void attach(BatchEncodeActivity activity) {
+      this.activity = activity;
+      if (done) {
+        activity.sharePages(pages);
+      }
+    }
+
+    void detach() {
+      activity = null;
+    }
+
+    @Override
+    protected List<File> doInBackground(Object... args) {
+      BatchEncoder encoder = new BatchEncoder(format, PAGE_WIDTH, PAGE_HEIGHT, COLUMNS, ROWS);
+      InputStream in = null;
+      try {
+        in = contentResolver.openInputStream(csvUri);
+        if (in == null) {
+          Log.w(TAG, "Couldn't open " + csvUri);
+          return null;
+        }
+        BufferedReader csv = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        if (png) {
+          return encoder.encode(csv, header, dir, baseName);
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+          throw new IOException("Couldn't make dir " + dir);
+        }
+        File pdf = new File(dir, baseName + ".pdf");
+        encoder.encodePDF(csv, header, pdf, DPI);
+        return Collections.singletonList(pdf);
+      } catch (IOException ioe) {
+        Log.w(TAG, "Couldn't encode " + csvUri, ioe);
+        return null;
+      } catch (InterruptedException ie) {
+        // Cancelled
+        return null;
+      } finally {
+        if (in != null) {
+          try {
+            in.close();
+          } catch (IOException ioe) {
+            // do nothing
+          }
+        }
+      }
+    }
+
+    @Override
+    protected void onPostExecute(List<File> result) {
+      pages = result;
+      done = true;
+      if (activity != null) {
+        activity.sharePages(pages);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.encode;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.Log;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.client.android.common.CSVLineParser;
+import com.google.zxing.common.BitMatrix;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Encodes many payloads into sheets of labels for printing, like shelf labels: pages of a grid of
+ * barcodes, written as PNG files or as one PDF.</p>
+ *
+ * <p>Payloads are encoded in parallel, one thread per core, while the calling thread draws them onto the
+ * page in order and writes each page as it fills. Payloads are read only as needed to keep the threads busy,
+ * and at most two pages of encoded barcodes wait to be drawn, so memory use doesn't grow with the size of
+ * the batch. Call from a background thread.</p>
+ */
+public final class BatchEncoder {
+
+  private static final String TAG = BatchEncoder.class.getSimpleName();
+
+  private static final int PAGES_AHEAD = 2;
+
+  private final BarcodeFormat format;
+  private final int pageWidth;
+  private final int pageHeight;
+  private final int columns;
+  private final int rows;
+
+  /**
+   * @param pageWidth width of a page, in pixels
+   * @param pageHeight height of a page, in pixels
+   * @param columns labels across a page
+   * @param rows labels down a page
+   */
+  public BatchEncoder(BarcodeFormat format, int pageWidth, int pageHeight, int columns, int rows) {
+    if (columns < 1 || rows < 1 || pageWidth < columns || pageHeight < rows) {
+      throw new IllegalArgumentException("Bad page layout");
+    }
+    this.format = format;
+    this.pageWidth = pageWidth;
+    this.pageHeight = pageHeight;
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  /**
+   * Writes each page as a PNG file. Labels are laid out left to right, then top to bottom. A payload that
+   * can't be encoded in the format leaves its label blank, so that the others stay in place.
+   *
+   * @param csv payloads, the first value of each non-blank line, read as they're needed. It isn't closed.
+   * @param header whether the first line of {@code csv} is a header, which is skipped
+   * @param dir where to write pages
+   * @param baseName pages are named with this, then {@code -1.png}, {@code -2.png} and so on
+   * @return pages written, in order
+   * @throws IOException if the payloads can't be read, or a page can't be written; pages written so far
+   *  are left
+   * @throws InterruptedException if the calling thread is interrupted; pages written so far are left
+   */
+  public List<File> encode(BufferedReader csv, boolean header, File dir, String baseName)
+      throws IOException, InterruptedException {
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Couldn't make dir " + dir);
+    }
+    PNGSheets sheets = new PNGSheets(dir, baseName);
+    try {
+      layOut(csv, header, sheets);
+    } finally {
+      sheets.page.recycle();
+    }
+    return sheets.pages;
+  }
+
+  /**
+   * Writes the pages into one PDF instead, drawing barcodes as vector graphics. Each page is written out as it
+   * fills.
+   *
+   * @param csv as for {@link #encode(BufferedReader, boolean, File, String)}
+   * @param header as for {@link #encode(BufferedReader, boolean, File, String)}
+   * @param file PDF to write
+   * @param dpi resolution at which the page's size in pixels is printed, which sets its size in the PDF
+   * @return number of pages written
+   * @throws IOException if the payloads can't be read, or the PDF can't be written
+   * @throws InterruptedException if the calling thread is interrupted; the PDF is left incomplete
+   */
+  public int encodePDF(BufferedReader csv, boolean header, File file, int dpi)
+      throws IOException, InterruptedException {
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      PDFSheets sheets = new PDFSheets(
+          new VectorBarcodeWriter.PDFSheetWriter(out, pageWidth, pageHeight, 72.0f / dpi));
+      layOut(csv, header, sheets);
+      sheets.writer.finish();
+      return sheets.pageCount;
+    } finally {
+      out.close();
+    }
+  }
+
+  private void layOut(BufferedReader csv, boolean header, Sheets sheets) throws IOException, InterruptedException {
+    if (header) {
+      csv.readLine();
+    }
+    int labelsPerPage = columns * rows;
+    int cellWidth = pageWidth / columns;
+    int cellHeight = pageHeight / rows;
+    int margin = Math.min(cellWidth, cellHeight) / 10;
+    final int labelDimension = Math.min(cellWidth, cellHeight) - 2 * margin;
+
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // Encodings under way or done, in payload order
+    Queue<Future<BitMatrix>> pending = new ArrayDeque<Future<BitMatrix>>();
+    int pageCount = 0;
+    try {
+      int label = 0;
+      while (true) {
+        String next;
+        while (pending.size() < PAGES_AHEAD * labelsPerPage && (next = readPayload(csv)) != null) {
+          final String payload = next;
+          pending.add(executor.submit(new Callable<BitMatrix>() {
+            @Override
+            public BitMatrix call() throws Exception {
+              return QRCodeEncoder.encodeAsBitMatrix(payload, format, labelDimension);
+            }
+          }));
+        }
+        Future<BitMatrix> encoding = pending.poll();
+        if (encoding == null) {
+          break;
+        }
+        if (label == 0) {
+          sheets.startPage();
+        }
+        BitMatrix matrix;
+        try {
+          matrix = encoding.get();
+        } catch (ExecutionException ee) {
+          Log.w(TAG, "Couldn't encode label " + (pageCount * labelsPerPage + label), ee.getCause());
+          matrix = null;
+        }
+        if (matrix != null) {
+          int left = (label % columns) * cellWidth + margin;
+          int top = (label / columns) * cellHeight + margin;
+          sheets.drawLabel(matrix, left, top, cellWidth - 2 * margin, cellHeight - 2 * margin);
+        }
+        label++;
+        if (label == labelsPerPage) {
+          sheets.endPage();
+          pageCount++;
+          label = 0;
+        }
+      }
+      if (label > 0) {
+        sheets.endPage();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the first value of the next non-blank line, or {@code null} at the end
+   */
+  private static String readPayload(BufferedReader csv) throws IOException {
+    String line;
+    while ((line = csv.readLine()) != null) {
+      String payload = CSVLineParser.parse(line).get(0).trim();
+      if (!payload.isEmpty()) {
+        return payload;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Where pages of labels are drawn, and written as each is done.
+   */
+  private interface Sheets {
+    void startPage() throws IOException;
+    void drawLabel(BitMatrix matrix, int left, int top, int width, int height) throws IOException;
+    void endPage() throws IOException;
+  }
+
+  private final class PNGSheets implements Sheets {
+
+    private final File dir;
+    private final String baseName;
+    private final Bitmap page;
+    private final Canvas canvas;
+    private final Paint paint;
+    private final List<File> pages;
+
+    PNGSheets(File dir, String baseName) {
+      this.dir = dir;
+      this.baseName = baseName;
+      page = Bitmap.createBitmap(pageWidth, pageHeight, Bitmap.Config.RGB_565);
+      canvas = new Canvas(page);
+      paint = new Paint();
+      paint.setColor(Color.BLACK);
+      pages = new ArrayList<File>();
+    }
+
+    @Override
+    public void startPage() {
+      page.eraseColor(Color.WHITE);
+    }
+
+    @Override
+    public void drawLabel(BitMatrix matrix, int left, int top, int width, int height) {
+      BarcodeRenderer.draw(matrix, canvas, paint, left, top, width, height);
+    }
+
+    @Override
+    public void endPage() throws IOException {
+      File file = new File(dir, baseName + '-' + (pages.size() + 1) + ".png");
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+      try {
+        page.compress(Bitmap.CompressFormat.PNG, 0, out);
+      } finally {
+        out.close();
+      }
+      pages.add(file);
+    }
+
+  }
+
+  private static final class PDFSheets implements Sheets {
+
+    private final VectorBarcodeWriter.PDFSheetWriter writer;
+    private int pageCount;
+
+    PDFSheets(VectorBarcodeWriter.PDFSheetWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void startPage() throws IOException {
+      writer.startPage();
+    }
+
+    @Override
+    public void drawLabel(BitMatrix matrix, int left, int top, int width, int height) throws IOException {
+      writer.drawBarcode(matrix, left, top, width, height);
+    }
+
+    @Override
+    public void endPage() throws IOException {
+      writer.endPage();
+      pageCount++;
+    }
+
+  }
+
+}
@@ -20,28 +20,38 @@ import android.view.Display;
 import android.view.MenuInflater;
 import android.view.WindowManager;
 import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
 import com.google.zxing.client.android.Contents;
 import com.google.zxing.client.android.FinishListener;
 import com.google.zxing.client.android.Intents;
 import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.regex.Pattern;
 
 /**
@@ -57,8 +67,34 @@ public final class EncodeActivity extends Activity {
   private static final int MAX_BARCODE_FILENAME_LENGTH = 24;
   private static final Pattern NOT_ALPHANUMERIC = Pattern.compile("[^A-Za-z0-9]");
   private static final String USE_VCARD_KEY = "USE_VCARD";
+  private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.RGB_565;
+
+  /**
+   * How a barcode can be shared. PNG is what's shown on screen; SVG and PDF are vector graphics, which are
+   * smaller, and sharp when printed at any size.
+   */
+  private enum ShareFormat {
+    PNG("png", "image/png"),
+    SVG("svg", "image/svg+xml"),
+    PDF("pdf", "application/pdf");
+
+    private final String extension;
+    private final String mimeType;
+
+    ShareFormat(String extension, String mimeType) {
+      this.extension = extension;
+      this.mimeType = mimeType;
+    }
+  }
 
   private QRCodeEncoder qrCodeEncoder;
+  private EncodeTask encodeTask;
+  private boolean encodeTaskRetained;
+  private final AsyncTaskExecInterface taskExec;
+
+  public EncodeActivity() {
+    taskExec = new AsyncTaskExecManager().build();
+  }
 
   @Override
   public void onCreate(Bundle icicle) {
@@ -70,21 +106,30 @@ public final class EncodeActivity extends Activity {
       String action = intent.getAction();
       if (Intents.Encode.ACTION.equals(action) || Intent.ACTION_SEND.equals(action)) {
         setContentView(R.layout.encode);
+        // Still encoding, or done, for the activity this replaces after a configuration change
+        encodeTask = (EncodeTask) getLastNonConfigurationInstance();
       } else {
         finish();
       }
     }
   }
 
+  @Override
+  public Object onRetainNonConfigurationInstance() {
+    encodeTaskRetained = encodeTask != null;
+    return encodeTask;
+  }
+
   @Override
   public boolean onCreateOptionsMenu(Menu menu) {
     MenuInflater menuInflater = getMenuInflater();
     menuInflater.inflate(R.menu.encode, menu);
-    boolean useVcard = qrCodeEncoder != null && qrCodeEncoder.isUseVCard();
-    int encodeNameResource = useVcard ? R.string.menu_encode_mecard : R.string.menu_encode_vcard;
     MenuItem encodeItem = menu.findItem(R.id.menu_encode);
-    encodeItem.setTitle(encodeNameResource);
     Intent intent = getIntent();
+    // Known before the encoder is, as it may still be being built
+    boolean useVcard = intent != null && intent.getBooleanExtra(USE_VCARD_KEY, false);
+    int encodeNameResource = useVcard ? R.string.menu_encode_mecard : R.string.menu_encode_vcard;
+    encodeItem.setTitle(encodeNameResource);
     if (intent != null) {
       String type = intent.getStringExtra(Intents.Encode.TYPE);
       encodeItem.setVisible(Contents.Type.CONTACT.equals(type));
@@ -96,14 +141,20 @@ public final class EncodeActivity extends Activity {
   public boolean onOptionsItemSelected(MenuItem item) {
     switch (item.getItemId()) {
       case R.id.menu_share:
-        share();
+        share(ShareFormat.PNG);
+        return true;
+      case R.id.menu_share_svg:
+        share(ShareFormat.SVG);
+        return true;
+      case R.id.menu_share_pdf:
+        share(ShareFormat.PDF);
         return true;
       case R.id.menu_encode:
         Intent intent = getIntent();
         if (intent == null) {
           return false;
         }
-        intent.putExtra(USE_VCARD_KEY, !qrCodeEncoder.isUseVCard());
+        intent.putExtra(USE_VCARD_KEY, !intent.getBooleanExtra(USE_VCARD_KEY, false));
         startActivity(intent);
         finish();
         return true;
@@ -112,7 +163,7 @@ public final class EncodeActivity extends Activity {
     }
   }
   
-  private void share() {
+  private void share(ShareFormat shareFormat) {
     QRCodeEncoder encoder = qrCodeEncoder;
     if (encoder == null) { // Odd
       Log.w(TAG, "No existing barcode to send?");
@@ -125,17 +176,6 @@ public final class EncodeActivity extends Activity {
       return;
     }
 
-    Bitmap bitmap;
-    try {
-      bitmap = encoder.encodeAsBitmap();
-    } catch (WriterException we) {
-      Log.w(TAG, we);
-      return;
-    }
-    if (bitmap == null) {
-      return;
-    }
-
     File bsRoot = new File(Environment.getExternalStorageDirectory(), "BarcodeScanner");
     File barcodesRoot = new File(bsRoot, "Barcodes");
     if (!barcodesRoot.exists() && !barcodesRoot.mkdirs()) {
@@ -143,35 +183,127 @@ public final class EncodeActivity extends Activity {
       showErrorMessage(R.string.msg_unmount_usb);
       return;
     }
-    File barcodeFile = new File(barcodesRoot, makeBarcodeFileName(contents) + ".png");
+    File barcodeFile = new File(barcodesRoot, makeBarcodeFileName(contents) + "." + shareFormat.extension);
     barcodeFile.delete();
-    FileOutputStream fos = null;
     try {
-      fos = new FileOutputStream(barcodeFile);
-      bitmap.compress(Bitmap.CompressFormat.PNG, 0, fos);
-    } catch (FileNotFoundException fnfe) {
-      Log.w(TAG, "Couldn't access file " + barcodeFile + " due to " + fnfe);
+      boolean written = shareFormat == ShareFormat.PNG ?
+          writePNG(encoder, barcodeFile) : writeVector(encoder, shareFormat, barcodeFile);
+      if (!written) {
+        return;
+      }
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't access file " + barcodeFile + " due to " + ioe);
       showErrorMessage(R.string.msg_unmount_usb);
       return;
-    } finally {
-      if (fos != null) {
-        try {
-          fos.close();
-        } catch (IOException ioe) {
-          // do nothing
-        }
-      }
     }
 
     Intent intent = new Intent(Intent.ACTION_SEND, Uri.parse("mailto:"));
     intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.app_name) + " - " + encoder.getTitle());
     intent.putExtra(Intent.EXTRA_TEXT, contents);
     intent.putExtra(Intent.EXTRA_STREAM, Uri.parse("file://" + barcodeFile.getAbsolutePath()));
-    intent.setType("image/png");
+    intent.setType(shareFormat.mimeType);
     intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
     startActivity(Intent.createChooser(intent, null));
   }
 
+  /**
+   * @return false if the barcode couldn't be encoded
+   */
+  private boolean writePNG(QRCodeEncoder encoder, File barcodeFile) throws IOException {
+    // The barcode being shown is usually cached as a PNG already, which need only be copied
+    BarcodeCache cache = BarcodeCache.getInstance(this);
+    String key = encoder.getBitmapKey(BITMAP_CONFIG);
+    File cachedFile = cache.getFile(key);
+    if (cachedFile == null) {
+      Bitmap bitmap;
+      try {
+        bitmap = encodeCached(this, encoder);
+      } catch (WriterException we) {
+        Log.w(TAG, we);
+        return false;
+      }
+      if (bitmap == null) {
+        return false;
+      }
+      cachedFile = cache.save(key, bitmap);
+      if (cachedFile == null) {
+        throw new IOException("Couldn't cache barcode");
+      }
+    }
+    InputStream fis = null;
+    OutputStream fos = null;
+    try {
+      fis = new FileInputStream(cachedFile);
+      fos = new FileOutputStream(barcodeFile);
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = fis.read(buffer)) > 0) {
+        fos.write(buffer, 0, read);
+      }
+    } finally {
+      close(fis);
+      close(fos);
+    }
+    return true;
+  }
+
+  /**
+   * @return false if the barcode couldn't be encoded
+   */
+  private static boolean writeVector(QRCodeEncoder encoder, ShareFormat shareFormat, File barcodeFile)
+      throws IOException {
+    BitMatrix matrix;
+    try {
+      matrix = encoder.encodeAsModuleMatrix();
+    } catch (WriterException we) {
+      Log.w(TAG, we);
+      return false;
+    }
+    if (matrix == null) {
+      return false;
+    }
+    OutputStream fos = new BufferedOutputStream(new FileOutputStream(barcodeFile));
+    try {
+      if (shareFormat == ShareFormat.SVG) {
+        VectorBarcodeWriter.writeSVG(matrix, fos);
+      } else {
+        VectorBarcodeWriter.writePDF(matrix, fos);
+      }
+    } finally {
+      fos.close();
+    }
+    return true;
+  }
+
+  private static void close(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ioe) {
+        // do nothing
+      }
+    }
+  }
+
+  /**
+   * @return the barcode from {@link BarcodeCache}, or else newly encoded and cached
+   */
+  private static Bitmap encodeCached(Context context, QRCodeEncoder encoder) throws WriterException {
+    String key = encoder.getBitmapKey(BITMAP_CONFIG);
+    if (key == null) {
+      return null;
+    }
+    BarcodeCache cache = BarcodeCache.getInstance(context);
+    Bitmap bitmap = cache.load(key, BITMAP_CONFIG);
+    if (bitmap == null) {
+      bitmap = encoder.encodeAsBitmap(BITMAP_CONFIG);
+      if (bitmap != null) {
+        cache.put(key, bitmap);
+      }
+    }
+    return bitmap;
+  }
+
   private static CharSequence makeBarcodeFileName(CharSequence contents) {
     String fileName = NOT_ALPHANUMERIC.matcher(contents).replaceAll("_");
     if (fileName.length() > MAX_BARCODE_FILENAME_LENGTH) {
@@ -196,33 +328,60 @@ public final class EncodeActivity extends Activity {
       return;
     }
 
-    try {
-      boolean useVCard = intent.getBooleanExtra(USE_VCARD_KEY, false);
-      qrCodeEncoder = new QRCodeEncoder(this, intent, smallerDimension, useVCard);
-      Bitmap bitmap = qrCodeEncoder.encodeAsBitmap();
-      if (bitmap == null) {
-        Log.w(TAG, "Could not encode barcode");
-        showErrorMessage(R.string.msg_encode_contents_failed);
-        qrCodeEncoder = null;
-        return;
-      }
+    boolean useVCard = intent.getBooleanExtra(USE_VCARD_KEY, false);
+    if (encodeTask != null && !encodeTask.isFor(smallerDimension, useVCard)) {
+      encodeTask.cancel(true);
+      encodeTask = null;
+    }
+    if (encodeTask == null) {
+      findViewById(R.id.image_view).setVisibility(View.GONE);
+      findViewById(R.id.encode_progress).setVisibility(View.VISIBLE);
+      encodeTask = new EncodeTask(getApplicationContext(), intent, smallerDimension, useVCard);
+      taskExec.execute(encodeTask);
+    }
+    encodeTask.attach(this);
+  }
 
-      ImageView view = (ImageView) findViewById(R.id.image_view);
-      view.setImageBitmap(bitmap);
+  @Override
+  protected void onPause() {
+    if (encodeTask != null) {
+      encodeTask.detach();
+    }
+    super.onPause();
+  }
 
-      TextView contents = (TextView) findViewById(R.id.contents_text_view);
-      if (intent.getBooleanExtra(Intents.Encode.SHOW_CONTENTS, true)) {
-        contents.setText(qrCodeEncoder.getDisplayContents());
-        setTitle(qrCodeEncoder.getTitle());
-      } else {
-        contents.setText("");
-        setTitle("");
-      }
-    } catch (WriterException e) {
-      Log.w(TAG, "Could not encode barcode", e);
+  @Override
+  protected void onDestroy() {
+    if (encodeTask != null && !encodeTaskRetained) {
+      encodeTask.cancel(true);
+      encodeTask = null;
+    }
+    super.onDestroy();
+  }
+
+  private void showContents(QRCodeEncoder encoder) {
+    qrCodeEncoder = encoder;
+    TextView contents = (TextView) findViewById(R.id.contents_text_view);
+    if (getIntent().getBooleanExtra(Intents.Encode.SHOW_CONTENTS, true)) {
+      contents.setText(encoder.getDisplayContents());
+      setTitle(encoder.getTitle());
+    } else {
+      contents.setText("");
+      setTitle("");
+    }
+  }
+
+  private void showBarcode(Bitmap bitmap) {
+    if (bitmap == null) {
+      Log.w(TAG, "Could not encode barcode");
       showErrorMessage(R.string.msg_encode_contents_failed);
       qrCodeEncoder = null;
+      return;
     }
+    findViewById(R.id.encode_progress).setVisibility(View.GONE);
+    ImageView view = (ImageView) findViewById(R.id.image_view);
+    view.setImageBitmap(bitmap);
+    view.setVisibility(View.VISIBLE);
   }
 
   private void showErrorMessage(int message) {
@@ -232,4 +391,80 @@ public final class EncodeActivity extends Activity {
     builder.setOnCancelListener(new FinishListener(this));
     builder.show();
   }
+
+  /**
+   * Builds the encoder, whose contents are shown as soon as it's ready, and then the barcode, in the
+   * background. It's kept across configuration changes, reporting to whichever activity is attached.
+   */
+  private static final class EncodeTask extends AsyncTask<Object,QRCodeEncoder,Bitmap> {
+
+    private final Context context;
+    private final Intent intent;
+    private final int dimension;
+    private final boolean useVCard;
+    // These are only accessed from the main thread
+    private EncodeActivity activity;
+    private QRCodeEncoder encoder;
+    private Bitmap bitmap;
+    private boolean done;
+
+    EncodeTask(Context context, Intent intent, int dimension, boolean useVCard) {
+      this.context = context;
+      this.intent = intent;
+      this.dimension = dimension;
+      this.useVCard = useVCard;
+    }
+
+    boolean isFor(int dimension, boolean useVCard) {
+      return this.dimension == dimension && this.useVCard == useVCard;
+    }
+
+    void attach(EncodeActivity activity) {
+      this.activity = activity;
+      if (encoder != null) {
+        activity.showContents(encoder);
+      }
+      if (done) {
+        activity.showBarcode(bitmap);
+      }
+    }
+
+    void detach() {
+      activity = null;
+    }
+
+    @Override
+    protected Bitmap doInBackground(Object... args) {
+      try {
+        QRCodeEncoder newEncoder = new QRCodeEncoder(context, intent, dimension, useVCard);
+        publishProgress(newEncoder);
+        if (isCancelled()) {
+          return null;
+        }
+        return encodeCached(context, newEncoder);
+      } catch (WriterException we) {
+        Log.w(TAG, "Could not encode barcode", we);
+        return null;
+      }
+    }
+
+    @Override
+    protected void onProgressUpdate(QRCodeEncoder... values) {
+      encoder = values[0];
+      if (activity != null) {
+        activity.showContents(encoder);
+      }
+    }
+
+    @Override
+    protected void onPostExecute(Bitmap result) {
+      bitmap = result;
+      done = true;
+      if (activity != null) {
+        activity.showBarcode(bitmap);
+      }
+    }
+
+  }
+
 }
@@ -30,7 +30,7 @@ import com.google.zxing.client.result.ParsedResult;
 import com.google.zxing.client.result.ResultParser;
 import com.google.zxing.common.BitMatrix;
 
-import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
@@ -58,10 +58,10 @@ final class QRCodeEncoder {
 
   private static final String TAG = QRCodeEncoder.class.getSimpleName();
 
-  private static final int WHITE = 0xFFFFFFFF;
-  private static final int BLACK = 0xFF000000;
+  // Bits per module, each way, in the smallest PDF 417 matrix the writer makes
+  private static final int PDF417_SCALE = 2;
 
-  private final Activity activity;
+  private final Context context;
   private String contents;
   private String displayContents;
   private String title;
@@ -69,8 +69,8 @@ final class QRCodeEncoder {
   private final int dimension;
   private final boolean useVCard;
 
-  QRCodeEncoder(Activity activity, Intent intent, int dimension, boolean useVCard) throws WriterException {
-    this.activity = activity;
+  QRCodeEncoder(Context context, Intent intent, int dimension, boolean useVCard) throws WriterException {
+    this.context = context;
     this.dimension = dimension;
     this.useVCard = useVCard;
     String action = intent.getAction();
@@ -122,7 +122,7 @@ final class QRCodeEncoder {
       if (data != null && !data.isEmpty()) {
         contents = data;
         displayContents = data;
-        title = activity.getString(R.string.contents_text);
+        title = context.getString(R.string.contents_text);
       }
     }
     return contents != null && !contents.isEmpty();
@@ -171,7 +171,7 @@ final class QRCodeEncoder {
     } else {
       displayContents = contents;
     }
-    title = activity.getString(R.string.contents_text);
+    title = context.getString(R.string.contents_text);
   }
 
   // Handles send intents from the Contacts app, retrieving a contact as a VCARD.
@@ -188,7 +188,7 @@ final class QRCodeEncoder {
     byte[] vcard;
     String vcardString;
     try {
-      InputStream stream = activity.getContentResolver().openInputStream(uri);
+      InputStream stream = context.getContentResolver().openInputStream(uri);
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
       byte[] buffer = new byte[2048];
       int bytesRead;
@@ -219,28 +219,28 @@ final class QRCodeEncoder {
       if (data != null && !data.isEmpty()) {
         contents = data;
         displayContents = data;
-        title = activity.getString(R.string.contents_text);
+        title = context.getString(R.string.contents_text);
       }
     } else if (type.equals(Contents.Type.EMAIL)) {
       String data = ContactEncoder.trim(intent.getStringExtra(Intents.Encode.DATA));
       if (data != null) {
         contents = "mailto:" + data;
         displayContents = data;
-        title = activity.getString(R.string.contents_email);
+        title = context.getString(R.string.contents_email);
       }
     } else if (type.equals(Contents.Type.PHONE)) {
       String data = ContactEncoder.trim(intent.getStringExtra(Intents.Encode.DATA));
       if (data != null) {
         contents = "tel:" + data;
         displayContents = PhoneNumberUtils.formatNumber(data);
-        title = activity.getString(R.string.contents_phone);
+        title = context.getString(R.string.contents_phone);
       }
     } else if (type.equals(Contents.Type.SMS)) {
       String data = ContactEncoder.trim(intent.getStringExtra(Intents.Encode.DATA));
       if (data != null) {
         contents = "sms:" + data;
         displayContents = PhoneNumberUtils.formatNumber(data);
-        title = activity.getString(R.string.contents_sms);
+        title = context.getString(R.string.contents_sms);
       }
     } else if (type.equals(Contents.Type.CONTACT)) {
 
@@ -274,7 +274,7 @@ final class QRCodeEncoder {
         if (!encoded[1].isEmpty()) {
           contents = encoded[0];
           displayContents = encoded[1];
-          title = activity.getString(R.string.contents_contact);
+          title = context.getString(R.string.contents_contact);
         }
 
       }
@@ -288,7 +288,7 @@ final class QRCodeEncoder {
         if (latitude != Float.MAX_VALUE && longitude != Float.MAX_VALUE) {
           contents = "geo:" + latitude + ',' + longitude;
           displayContents = latitude + "," + longitude;
-          title = activity.getString(R.string.contents_location);
+          title = context.getString(R.string.contents_location);
         }
       }
     }
@@ -307,7 +307,7 @@ final class QRCodeEncoder {
     if (!encoded[1].isEmpty()) {
       contents = encoded[0];
       displayContents = encoded[1];
-      title = activity.getString(R.string.contents_contact);
+      title = context.getString(R.string.contents_contact);
     }
   }
 
@@ -315,37 +315,94 @@ final class QRCodeEncoder {
     return values == null ? null : Arrays.asList(values);
   }
 
-  Bitmap encodeAsBitmap() throws WriterException {
+  /**
+   * @param config see {@link BarcodeRenderer#render(BitMatrix, int, int, Bitmap.Config)}
+   * @return the barcode, about {@code dimension} pixels square, or {@code null} if its format is unsupported
+   */
+  Bitmap encodeAsBitmap(Bitmap.Config config) throws WriterException {
+    BitMatrix matrix = encodeAsBitMatrix();
+    if (matrix == null) {
+      return null;
+    }
+    if (format == BarcodeFormat.PDF_417) {
+      // Already scaled by the writer, which has its own idea of a module's aspect ratio
+      return BarcodeRenderer.render(matrix, matrix.getWidth(), matrix.getHeight(), config);
+    }
+    return BarcodeRenderer.render(matrix, dimension, dimension, config);
+  }
+
+  /**
+   * @return identifies the bitmap {@link #encodeAsBitmap(Bitmap.Config)} would make, by everything it depends
+   *  on, or {@code null} if there are no contents
+   */
+  String getBitmapKey(Bitmap.Config config) {
+    if (contents == null) {
+      return null;
+    }
+    return format + ":" + dimension + ':' + config + ':' + guessAppropriateEncoding(contents) + ':' + contents;
+  }
+
+  /**
+   * @return the barcode at one bit per module, quiet zone included, or {@code null} if its format is
+   *  unsupported. PDF 417 is the exception, which is always scaled to about {@code dimension} pixels wide.
+   */
+  BitMatrix encodeAsBitMatrix() throws WriterException {
+    String contentsToEncode = contents;
+    if (contentsToEncode == null) {
+      return null;
+    }
+    return encodeAsBitMatrix(contentsToEncode, format, dimension);
+  }
+
+  /**
+   * @return like {@link #encodeAsBitMatrix()}, but PDF 417 too is at one bit per module, for output that's
+   *  scaled by module like vector graphics. Its rows are 4 modules tall.
+   */
+  BitMatrix encodeAsModuleMatrix() throws WriterException {
     String contentsToEncode = contents;
     if (contentsToEncode == null) {
       return null;
     }
+    if (format != BarcodeFormat.PDF_417) {
+      return encodeAsBitMatrix(contentsToEncode, format, dimension);
+    }
+    // The writer's smallest matrix still draws each module PDF417_SCALE bits square, so divide that out
+    BitMatrix scaled = encodeAsBitMatrix(contentsToEncode, format, 0);
+    if (scaled == null) {
+      return null;
+    }
+    int width = scaled.getWidth() / PDF417_SCALE;
+    int height = scaled.getHeight() / PDF417_SCALE;
+    BitMatrix matrix = new BitMatrix(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (scaled.get(x * PDF417_SCALE, y * PDF417_SCALE)) {
+          matrix.set(x, y);
+        }
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * @see #encodeAsBitMatrix()
+   */
+  static BitMatrix encodeAsBitMatrix(String contents, BarcodeFormat format, int dimension)
+      throws WriterException {
     Map<EncodeHintType,Object> hints = null;
-    String encoding = guessAppropriateEncoding(contentsToEncode);
+    String encoding = guessAppropriateEncoding(contents);
     if (encoding != null) {
       hints = new EnumMap<EncodeHintType,Object>(EncodeHintType.class);
       hints.put(EncodeHintType.CHARACTER_SET, encoding);
     }
-    BitMatrix result;
+    // Asking for no particular size gets the smallest matrix the writer can make; scaling is left to rendering
+    int size = format == BarcodeFormat.PDF_417 ? dimension : 0;
     try {
-      result = new MultiFormatWriter().encode(contentsToEncode, format, dimension, dimension, hints);
+      return new MultiFormatWriter().encode(contents, format, size, size, hints);
     } catch (IllegalArgumentException iae) {
       // Unsupported format
       return null;
     }
-    int width = result.getWidth();
-    int height = result.getHeight();
-    int[] pixels = new int[width * height];
-    for (int y = 0; y < height; y++) {
-      int offset = y * width;
-      for (int x = 0; x < width; x++) {
-        pixels[offset + x] = result.get(x, y) ? BLACK : WHITE;
-      }
-    }
-
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-    return bitmap;
   }
 
   private static String guessAppropriateEncoding(CharSequence contents) {
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.encode;
+
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>Writes a barcode as vector graphics, SVG or PDF, which stay sharp at any size and are only a few KB.
+ * Dark modules are merged into rectangles: runs along each row, extended down over following rows with the
+ * same run. The unit is one module; a 1D barcode, one row of modules, gets bars half as tall as it's wide.</p>
+ *
+ * <p>{@link PDFSheetWriter} instead places many barcodes, each scaled to fit its own area, on many pages.</p>
+ */
+final class VectorBarcodeWriter {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  // Size of a module in a PDF, in points; 1 mm
+  private static final float PDF_MODULE_SIZE = 72.0f / 25.4f;
+
+  private VectorBarcodeWriter() {
+  }
+
+  static void writeSVG(BitMatrix matrix, OutputStream out) throws IOException {
+    List<int[]> rects = toRectangles(matrix);
+    int width = matrix.getWidth();
+    int height = heightOf(matrix);
+    Writer writer = new OutputStreamWriter(out, ASCII);
+    writer.write("<?xml version=\"1.0\" encoding=\"US-ASCII\"?>\n");
+    writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" viewBox=\"0 0 " + width + ' ' + height +
+                 "\" width=\"" + width + "mm\" height=\"" + height + "mm\" shape-rendering=\"crispEdges\">\n");
+    writer.write("<rect width=\"" + width + "\" height=\"" + height + "\" fill=\"#FFFFFF\"/>\n");
+    writer.write("<path fill=\"#000000\" d=\"");
+    for (int[] rect : rects) {
+      // Move to the top left, then go right, down and back left
+      writer.write("M" + rect[0] + ' ' + rect[1] + 'h' + rect[2] + 'v' + rect[3] + 'h' + (-rect[2]) + 'z');
+    }
+    writer.write("\"/>\n</svg>\n");
+    writer.flush();
+  }
+
+  static void writePDF(BitMatrix matrix, OutputStream out) throws IOException {
+    List<int[]> rects = toRectangles(matrix);
+    int width = matrix.getWidth();
+    int height = heightOf(matrix);
+
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    Writer contentWriter = new OutputStreamWriter(new DeflaterOutputStream(content), ASCII);
+    // Scale to modules, with the origin at the top left as in the matrix, then fill white and draw black
+    contentWriter.write(PDF_MODULE_SIZE + " 0 0 " + (-PDF_MODULE_SIZE) + " 0 " + (height * PDF_MODULE_SIZE) +
+                        " cm\n1 g 0 0 " + width + ' ' + height + " re f\n0 g\n");
+    for (int[] rect : rects) {
+      contentWriter.write(rect[0] + " " + rect[1] + ' ' + rect[2] + ' ' + rect[3] + " re\n");
+    }
+    contentWriter.write("f\n");
+    contentWriter.close();
+
+    PDFWriter pdf = new PDFWriter(out);
+    pdf.write("%PDF-1.4\n");
+    pdf.startObject(1);
+    pdf.write("<< /Type /Catalog /Pages 2 0 R >>\n");
+    pdf.endObject();
+    pdf.startObject(2);
+    pdf.write("<< /Type /Pages /Kids [3 0 R] /Count 1 >>\n");
+    pdf.endObject();
+    pdf.startObject(3);
+    pdf.write("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + (width * PDF_MODULE_SIZE) + ' ' +
+              (height * PDF_MODULE_SIZE) + "] /Contents 4 0 R /Resources << >> >>\n");
+    pdf.endObject();
+    pdf.startObject(4);
+    pdf.write("<< /Length " + content.size() + " /Filter /FlateDecode >>\nstream\n");
+    pdf.write(content.toByteArray());
+    pdf.write("\nendstream\n");
+    pdf.endObject();
+    pdf.finish(1);
+  }
+
+  private static int heightOf(BitMatrix matrix) {
+    return matrix.getHeight() == 1 ? Math.max(1, matrix.getWidth() / 2) : matrix.getHeight();
+  }
+
+  /**
+   * @return rectangles covering the dark modules, each as left, top, width and height
+   */
+  private static List<int[]> toRectangles(BitMatrix matrix) {
+    int matrixWidth = matrix.getWidth();
+    int matrixHeight = matrix.getHeight();
+    List<int[]> rects = new ArrayList<int[]>();
+    // Rectangles that reached the previous row, by where their run starts and ends
+    Map<Long,int[]> open = new HashMap<Long,int[]>();
+    BitArray row = null;
+    for (int y = 0; y < matrixHeight; y++) {
+      row = matrix.getRow(y, row);
+      Map<Long,int[]> stillOpen = new HashMap<Long,int[]>();
+      int x = row.getNextSet(0);
+      while (x < matrixWidth) {
+        int end = row.getNextUnset(x);
+        Long run = ((long) x << 32) | end;
+        int[] rect = open.get(run);
+        if (rect == null) {
+          rect = new int[] {x, y, end - x, 1};
+          rects.add(rect);
+        } else {
+          rect[3]++;
+        }
+        stillOpen.put(run, rect);
+        x = row.getNextSet(end);
+      }
+      open = stillOpen;
+    }
+    if (matrixHeight == 1) {
+      int height = heightOf(matrix);
+      for (int[] rect : rects) {
+        rect[3] = height;
+      }
+    }
+    return rects;
+  }
+
+  /**
+   * Writes a PDF of many pages, like sheets of labels, streaming each page's objects out as soon as it's done,
+   * so that memory use doesn't grow with the number of pages. Coordinates are in units of the caller's choosing,
+   * like pixels, from the top left of the page.
+   */
+  static final class PDFSheetWriter {
+
+    private static final int CATALOG_OBJECT = 1;
+    private static final int PAGES_OBJECT = 2;
+
+    private final PDFWriter pdf;
+    private final int pageWidth;
+    private final int pageHeight;
+    private final float pointsPerUnit;
+    private final List<Integer> pageObjects;
+    private int nextObject;
+    private ByteArrayOutputStream content;
+    private Writer contentWriter;
+
+    /**
+     * @param pointsPerUnit size of a unit in points, 1/72 inch
+     */
+    PDFSheetWriter(OutputStream out, int pageWidth, int pageHeight, float pointsPerUnit) throws IOException {
+      pdf = new PDFWriter(out);
+      this.pageWidth = pageWidth;
+      this.pageHeight = pageHeight;
+      this.pointsPerUnit = pointsPerUnit;
+      pageObjects = new ArrayList<Integer>();
+      // The catalog and page tree come last, once the pages are known
+      nextObject = PAGES_OBJECT + 1;
+      pdf.write("%PDF-1.4\n");
+    }
+
+    void startPage() throws IOException {
+      content = new ByteArrayOutputStream();
+      contentWriter = new OutputStreamWriter(new DeflaterOutputStream(content), ASCII);
+      // Scale to units, with the origin at the top left, then draw black
+      contentWriter.write(pointsPerUnit + " 0 0 " + (-pointsPerUnit) + " 0 " + (pageHeight * pointsPerUnit) +
+                          " cm\n0 g\n");
+    }
+
+    /**
+     * Draws a barcode scaled to fit the area and centered in it, keeping modules square. A 1D barcode is
+     * stretched to the full height.
+     */
+    void drawBarcode(BitMatrix matrix, int left, int top, int width, int height) throws IOException {
+      int matrixWidth = matrix.getWidth();
+      int matrixHeight = heightOf(matrix);
+      float scaleX = (float) width / matrixWidth;
+      float scaleY = (float) height / matrixHeight;
+      if (matrix.getHeight() > 1) {
+        scaleX = Math.min(scaleX, scaleY);
+        scaleY = scaleX;
+      }
+      float codeLeft = left + (width - matrixWidth * scaleX) / 2.0f;
+      float codeTop = top + (height - matrixHeight * scaleY) / 2.0f;
+      contentWriter.write("q " + scaleX + " 0 0 " + scaleY + ' ' + codeLeft + ' ' + codeTop + " cm\n");
+      for (int[] rect : toRectangles(matrix)) {
+        contentWriter.write(rect[0] + " " + rect[1] + ' ' + rect[2] + ' ' + rect[3] + " re\n");
+      }
+      contentWriter.write("f Q\n");
+    }
+
+    void endPage() throws IOException {
+      contentWriter.close();
+      int contentsObject = nextObject++;
+      pdf.startObject(contentsObject);
+      pdf.write("<< /Length " + content.size() + " /Filter /FlateDecode >>\nstream\n");
+      pdf.write(content.toByteArray());
+      pdf.write("\nendstream\n");
+      pdf.endObject();
+      int pageObject = nextObject++;
+      pdf.startObject(pageObject);
+      pdf.write("<< /Type /Page /Parent " + PAGES_OBJECT + " 0 R /MediaBox [0 0 " + (pageWidth * pointsPerUnit) +
+                ' ' + (pageHeight * pointsPerUnit) + "] /Contents " + contentsObject + " 0 R /Resources << >> >>\n");
+      pdf.endObject();
+      pageObjects.add(pageObject);
+      content = null;
+      contentWriter = null;
+    }
+
+    void finish() throws IOException {
+      StringBuilder kids = new StringBuilder();
+      for (int pageObject : pageObjects) {
+        kids.append(pageObject).append(" 0 R ");
+      }
+      pdf.startObject(PAGES_OBJECT);
+      pdf.write("<< /Type /Pages /Kids [" + kids + "] /Count " + pageObjects.size() + " >>\n");
+      pdf.endObject();
+      pdf.startObject(CATALOG_OBJECT);
+      pdf.write("<< /Type /Catalog /Pages " + PAGES_OBJECT + " 0 R >>\n");
+      pdf.endObject();
+      pdf.finish(CATALOG_OBJECT);
+    }
+
+  }
+
+  /**
+   * Writes PDF objects, in any order, keeping track of where each starts for the cross-reference table.
+   */
+  private static final class PDFWriter {
+
+    private final OutputStream out;
+    // By object number, less one
+    private final List<Integer> offsets;
+    private int position;
+
+    PDFWriter(OutputStream out) {
+      this.out = out;
+      offsets = new ArrayList<Integer>();
+    }
+
+    void write(String s) throws IOException {
+      write(s.getBytes(ASCII));
+    }
+
+    void write(byte[] bytes) throws IOException {
+      out.write(bytes);
+      position += bytes.length;
+    }
+
+    void startObject(int number) throws IOException {
+      while (offsets.size() < number) {
+        offsets.add(null);
+      }
+      offsets.set(number - 1, position);
+      write(number + " 0 obj\n");
+    }
+
+    void endObject() throws IOException {
+      write("endobj\n");
+    }
+
+    void finish(int root) throws IOException {
+      int xrefPosition = position;
+      StringBuilder xref = new StringBuilder();
+      xref.append("xref\n0 ").append(offsets.size() + 1).append('\n');
+      xref.append("0000000000 65535 f \n");
+      for (int offset : offsets) {
+        String digits = Integer.toString(offset);
+        for (int i = digits.length(); i < 10; i++) {
+          xref.append('0');
+        }
+        xref.append(digits).append(" 00000 n \n");
+      }
+      xref.append("trailer\n<< /Size ").append(offsets.size() + 1).append(" /Root ").append(root).append(" 0 R >>\n");
+      xref.append("startxref\n").append(xrefPosition).append("\n%%EOF\n");
+      write(xref.toString());
+      out.flush();
+    }
+
+  }
+
+}
@@ -16,16 +16,25 @@
 
 package com.google.zxing.client.android.history;
 
+import android.annotation.TargetApi;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.content.Context;
+import android.os.Build;
 
 /**
+ * <p>Process-wide helper for the history database. A single instance, and so a single long-lived
+ * connection, is shared by all callers; the connection is opened lazily and never explicitly closed,
+ * which lets SQLite keep its page cache warm between scans. Write-ahead logging is enabled where
+ * the platform supports it so that readers don't block on the writer.</p>
+ *
  * @author Sean Owen
  */
 final class DBHelper extends SQLiteOpenHelper {
 
-  private static final int DB_VERSION = 5;
+  private static final int DB_VERSION = 11;
   private static final String DB_NAME = "barcode_scanner_history.db";
   static final String TABLE_NAME = "history";
   static final String ID_COL = "id";
@@ -34,9 +43,77 @@ final class DBHelper extends SQLiteOpenHelper {
   static final String DISPLAY_COL = "display";
   static final String TIMESTAMP_COL = "timestamp";
   static final String DETAILS_COL = "details";
+  static final String TEXT_HASH_COL = "text_hash";
+
+  /** Selection matching rows by text, with arguments from {@link #textSelectionArgs(String)}. */
+  static final String TEXT_SELECTION = TEXT_HASH_COL + "=? AND " + TEXT_COL + "=?";
+
+  static final String FTS_TABLE_NAME = "history_fts";
+
+  static final String DETAILS_TABLE_NAME = "history_details";
+  static final String DETAILS_HISTORY_ID_COL = "history_id";
+  static final String DETAILS_SOURCE_COL = "source";
+
+  /**
+   * Projection of a history row's supplemental details, joined from {@link #DETAILS_TABLE_NAME} in order of
+   * source as each row is read. Since version 8, {@link #DETAILS_COL} of the history table itself is no
+   * longer used.
+   */
+  static final String DETAILS_PROJECTION = concatenatedDetails(TABLE_NAME + '.' + ID_COL) + " AS " + DETAILS_COL;
+
+  /**
+   * Sets the details from one source for the most recent scan with some text, replacing that source's
+   * previous details. Arguments are the source, the details, the {@link #hashText(String) hash} of the
+   * text, then the text.
+   */
+  static final String UPSERT_DETAILS_SQL =
+      "INSERT OR REPLACE INTO " + DETAILS_TABLE_NAME +
+      " (" + DETAILS_HISTORY_ID_COL + ", " + DETAILS_SOURCE_COL + ", " + DETAILS_COL + ") " +
+      "SELECT " + ID_COL + ", ?, ? FROM " + TABLE_NAME + " WHERE " + TEXT_HASH_COL + "=? AND " + TEXT_COL + "=? " +
+      "ORDER BY " + TIMESTAMP_COL + " DESC LIMIT 1";
+
+  /** Selection matching rows by full-text search, with an argument from {@link #buildMatchQuery(String)}. */
+  static final String MATCH_SELECTION =
+      ID_COL + " IN (SELECT docid FROM " + FTS_TABLE_NAME + " WHERE " + FTS_TABLE_NAME + " MATCH ?)";
 
-  DBHelper(Context context) {
+  static final String STATS_TABLE_NAME = "scan_stats";
+  static final String STATS_HOUR_COL = "hour";
+  static final String STATS_COUNT_COL = "count";
+  static final long STATS_BUCKET_MS = 60L * 60L * 1000L;
+
+  private static final String TIMESTAMP_INDEX = "history_timestamp_idx";
+  private static final String TEXT_HASH_INDEX = "history_text_hash_idx";
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private static DBHelper instance;
+
+  private DBHelper(Context context) {
     super(context, DB_NAME, null, DB_VERSION);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      enableWriteAheadLoggingJellyBean();
+    }
+  }
+
+  /**
+   * @return the shared helper, bound to the application context so that it never leaks an activity
+   */
+  static synchronized DBHelper getInstance(Context context) {
+    if (instance == null) {
+      instance = new DBHelper(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  @Override
+  public void onOpen(SQLiteDatabase sqLiteDatabase) {
+    super.onOpen(sqLiteDatabase);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB &&
+        Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN &&
+        !sqLiteDatabase.isReadOnly()) {
+      enableWriteAheadLoggingHoneycomb(sqLiteDatabase);
+    }
   }
 
   @Override
@@ -48,13 +125,270 @@ final class DBHelper extends SQLiteOpenHelper {
             FORMAT_COL + " TEXT, " +
             DISPLAY_COL + " TEXT, " +
             TIMESTAMP_COL + " INTEGER, " +
-            DETAILS_COL + " TEXT);");
+            DETAILS_COL + " TEXT, " +
+            TEXT_HASH_COL + " INTEGER);");
+    createIndexes(sqLiteDatabase);
+    createFullTextIndex(sqLiteDatabase);
+    createDetailsTable(sqLiteDatabase);
+    createStatsTable(sqLiteDatabase);
   }
 
   @Override
   public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-    sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-    onCreate(sqLiteDatabase);
+    if (oldVersion < 5) {
+      // Schemas this old were never migrated; start over as before
+      sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+      onCreate(sqLiteDatabase);
+      return;
+    }
+    if (oldVersion < 6) {
+      sqLiteDatabase.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + TEXT_HASH_COL + " INTEGER");
+      backfillTextHashes(sqLiteDatabase);
+      createIndexes(sqLiteDatabase);
+    }
+    if (oldVersion < 7) {
+      createFullTextIndex(sqLiteDatabase);
+      sqLiteDatabase.execSQL(
+          "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + ") " +
+          "SELECT " + ID_COL + ", " + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + " FROM " + TABLE_NAME);
+    }
+    if (oldVersion < 8) {
+      createDetailsTable(sqLiteDatabase);
+      // Old concatenated details become one row from an unnamed source
+      sqLiteDatabase.execSQL(
+          "CREATE TEMP TABLE legacy_details AS SELECT " + ID_COL + ", " + DETAILS_COL + " FROM " + TABLE_NAME +
+          " WHERE " + DETAILS_COL + " IS NOT NULL");
+      sqLiteDatabase.execSQL("UPDATE " + TABLE_NAME + " SET " + DETAILS_COL + "=NULL");
+      sqLiteDatabase.execSQL(
+          "INSERT INTO " + DETAILS_TABLE_NAME +
+          " (" + DETAILS_HISTORY_ID_COL + ", " + DETAILS_SOURCE_COL + ", " + DETAILS_COL + ") " +
+          "SELECT " + ID_COL + ", '', " + DETAILS_COL + " FROM legacy_details");
+      sqLiteDatabase.execSQL("DROP TABLE legacy_details");
+    }
+    if (oldVersion < 9) {
+      createStatsTable(sqLiteDatabase);
+      // Only scans still in history can be counted
+      sqLiteDatabase.execSQL(
+          "INSERT INTO " + STATS_TABLE_NAME + " (" + FORMAT_COL + ", " + STATS_HOUR_COL + ", " + STATS_COUNT_COL + ") " +
+          "SELECT " + FORMAT_COL + ", " + TIMESTAMP_COL + '/' + STATS_BUCKET_MS + ", COUNT(1) FROM " + TABLE_NAME +
+          " GROUP BY 1, 2");
+    }
+    if (oldVersion < 10) {
+      // Details are now concatenated in order of source
+      for (String event : new String[] {"insert", "update", "delete"}) {
+        sqLiteDatabase.execSQL("DROP TRIGGER IF EXISTS " + DETAILS_TABLE_NAME + "_fts_" + event);
+      }
+      createDetailsFullTextTriggers(sqLiteDatabase);
+      sqLiteDatabase.execSQL(
+          "UPDATE " + FTS_TABLE_NAME + " SET " + DETAILS_COL + '=' + concatenatedDetails("docid") +
+          " WHERE docid IN (SELECT " + DETAILS_HISTORY_ID_COL + " FROM " + DETAILS_TABLE_NAME + ')');
+    }
+    if (oldVersion < 11) {
+      // Rebuilt for prefix indexes, and an update trigger that keeps details, which live in their own table
+      for (String event : new String[] {"insert", "update", "delete"}) {
+        sqLiteDatabase.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + '_' + event);
+      }
+      sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME);
+      createFullTextIndex(sqLiteDatabase);
+      sqLiteDatabase.execSQL(
+          "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + ") " +
+          "SELECT " + ID_COL + ", " + TEXT_COL + ", " + DISPLAY_COL + ", " +
+          concatenatedDetails(TABLE_NAME + '.' + ID_COL) + " FROM " + TABLE_NAME);
+    }
+  }
+
+  /**
+   * Hash of a scan's raw text, stored in {@link #TEXT_HASH_COL} so that lookups by text can use an index
+   * on a small integer column rather than scanning the table. Since hashes may collide, queries must
+   * still compare the text itself; see {@link #TEXT_SELECTION}.
+   *
+   * @param text raw text of the scan
+   * @return 64-bit FNV-1a hash of the text's characters
+   */
+  static long hashText(String text) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < text.length(); i++) {
+      hash ^= text.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  static String[] textSelectionArgs(String text) {
+    return new String[] { Long.toString(hashText(text)), text };
+  }
+
+  /**
+   * @return IDs of the history rows selected, such as those about to be deleted, whose thumbnails must go too
+   */
+  static long[] selectIDs(SQLiteDatabase db, String selection, String[] selectionArgs) {
+    Cursor cursor = db.query(TABLE_NAME, new String[] { ID_COL }, selection, selectionArgs, null, null, null);
+    try {
+      long[] ids = new long[cursor.getCount()];
+      for (int i = 0; cursor.moveToNext(); i++) {
+        ids[i] = cursor.getLong(0);
+      }
+      return ids;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.execSQL(
+        "CREATE INDEX IF NOT EXISTS " + TIMESTAMP_INDEX + " ON " + TABLE_NAME + " (" + TIMESTAMP_COL + ");");
+    sqLiteDatabase.execSQL(
+        "CREATE INDEX IF NOT EXISTS " + TEXT_HASH_INDEX + " ON " + TABLE_NAME + " (" + TEXT_HASH_COL + ");");
+  }
+
+  /**
+   * Turns what the user typed into a full-text query that matches scans containing words starting
+   * with each of the typed words.
+   *
+   * @param query search text as typed
+   * @return argument for {@link #MATCH_SELECTION}, or {@code null} if there is nothing to search for
+   */
+  static String buildMatchQuery(String query) {
+    StringBuilder match = new StringBuilder();
+    for (String term : query.split("\\s+")) {
+      // Quote each term so that FTS operators and punctuation in it are taken literally
+      term = term.replace("\"", "");
+      if (!term.isEmpty()) {
+        if (match.length() > 0) {
+          match.append(' ');
+        }
+        match.append('"').append(term).append("*\"");
+      }
+    }
+    return match.length() == 0 ? null : match.toString();
+  }
+
+  /**
+   * Creates a full-text index over text, display and details, which triggers keep in step with the
+   * history table. Its docid is the history row ID. FTS4 isn't available before Honeycomb, so FTS3
+   * is used there. Where SQLite supports it, the index also covers prefixes of up to three characters,
+   * so that the prefix queries run as the user types look terms up directly rather than scanning them.
+   */
+  private static void createFullTextIndex(SQLiteDatabase sqLiteDatabase) {
+    String module;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      // SQLite 3.7.7 and later
+      module = "fts4 (" + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + ", prefix=\"1,2,3\")";
+    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      module = "fts4 (" + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + ')';
+    } else {
+      module = "fts3 (" + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + ')';
+    }
+    sqLiteDatabase.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING " + module + ';');
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + FTS_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME + " BEGIN " +
+        "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + TEXT_COL + ", " + DISPLAY_COL + ", " + DETAILS_COL + ") " +
+        "VALUES (new." + ID_COL + ", new." + TEXT_COL + ", new." + DISPLAY_COL + ", new." + DETAILS_COL + "); END;");
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + FTS_TABLE_NAME + "_update AFTER UPDATE OF " +
+        TEXT_COL + ", " + DISPLAY_COL + " ON " + TABLE_NAME + " BEGIN " +
+        "UPDATE " + FTS_TABLE_NAME + " SET " + TEXT_COL + "=new." + TEXT_COL + ", " +
+        DISPLAY_COL + "=new." + DISPLAY_COL + ", " + DETAILS_COL + '=' + concatenatedDetails("new." + ID_COL) +
+        " WHERE docid=old." + ID_COL + "; END;");
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + FTS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME + " BEGIN " +
+        "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid=old." + ID_COL + "; END;");
+  }
+
+  /**
+   * Creates the table of supplemental details, one row per history row and source. Triggers delete
+   * a scan's details along with it, and keep the full-text index's copy of them up to date.
+   */
+  private static void createDetailsTable(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.execSQL(
+        "CREATE TABLE " + DETAILS_TABLE_NAME + " (" +
+        DETAILS_HISTORY_ID_COL + " INTEGER NOT NULL, " +
+        DETAILS_SOURCE_COL + " TEXT NOT NULL, " +
+        DETAILS_COL + " TEXT, " +
+        "PRIMARY KEY (" + DETAILS_HISTORY_ID_COL + ", " + DETAILS_SOURCE_COL + "));");
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + DETAILS_TABLE_NAME + "_cascade AFTER DELETE ON " + TABLE_NAME + " BEGIN " +
+        "DELETE FROM " + DETAILS_TABLE_NAME + " WHERE " + DETAILS_HISTORY_ID_COL + "=old." + ID_COL + "; END;");
+    createDetailsFullTextTriggers(sqLiteDatabase);
+  }
+
+  /**
+   * @param historyID SQL expression for the history row's ID
+   * @return SQL expression for that row's details from all sources, in order of source, so that they read the
+   *  same each time and in the full-text index
+   */
+  private static String concatenatedDetails(String historyID) {
+    // group_concat() follows the order rows come in, which only a subquery can set
+    return "(SELECT group_concat(" + DETAILS_COL + ", ' : ') FROM (SELECT " + DETAILS_COL + " FROM " +
+        DETAILS_TABLE_NAME + " WHERE " + DETAILS_HISTORY_ID_COL + '=' + historyID +
+        " ORDER BY " + DETAILS_SOURCE_COL + "))";
+  }
+
+  private static void createDetailsFullTextTriggers(SQLiteDatabase sqLiteDatabase) {
+    String reindex =
+        "UPDATE " + FTS_TABLE_NAME + " SET " + DETAILS_COL + '=' +
+        concatenatedDetails("%1$s." + DETAILS_HISTORY_ID_COL) + ' ' +
+        "WHERE docid=%1$s." + DETAILS_HISTORY_ID_COL + ';';
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + DETAILS_TABLE_NAME + "_fts_insert AFTER INSERT ON " + DETAILS_TABLE_NAME + " BEGIN " +
+        String.format(reindex, "new") + " END;");
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + DETAILS_TABLE_NAME + "_fts_update AFTER UPDATE ON " + DETAILS_TABLE_NAME + " BEGIN " +
+        String.format(reindex, "new") + " END;");
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + DETAILS_TABLE_NAME + "_fts_delete AFTER DELETE ON " + DETAILS_TABLE_NAME + " BEGIN " +
+        String.format(reindex, "old") + " END;");
+  }
+
+  /**
+   * Creates the table of scan counts per format and hour, which a trigger increments as each scan is
+   * inserted. Counts aren't decremented when history is deleted or trimmed, since the scans still
+   * happened. Hours are numbered from the epoch, in UTC.
+   */
+  private static void createStatsTable(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.execSQL(
+        "CREATE TABLE " + STATS_TABLE_NAME + " (" +
+        FORMAT_COL + " TEXT NOT NULL, " +
+        STATS_HOUR_COL + " INTEGER NOT NULL, " +
+        STATS_COUNT_COL + " INTEGER NOT NULL, " +
+        "PRIMARY KEY (" + STATS_HOUR_COL + ", " + FORMAT_COL + "));");
+    String hour = "new." + TIMESTAMP_COL + '/' + STATS_BUCKET_MS;
+    sqLiteDatabase.execSQL(
+        "CREATE TRIGGER " + STATS_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME + " BEGIN " +
+        "INSERT OR IGNORE INTO " + STATS_TABLE_NAME +
+        " (" + FORMAT_COL + ", " + STATS_HOUR_COL + ", " + STATS_COUNT_COL + ") " +
+        "VALUES (new." + FORMAT_COL + ", " + hour + ", 0); " +
+        "UPDATE " + STATS_TABLE_NAME + " SET " + STATS_COUNT_COL + '=' + STATS_COUNT_COL + "+1 " +
+        "WHERE " + STATS_HOUR_COL + '=' + hour + " AND " + FORMAT_COL + "=new." + FORMAT_COL + "; END;");
+  }
+
+  private static void backfillTextHashes(SQLiteDatabase sqLiteDatabase) {
+    SQLiteStatement update = sqLiteDatabase.compileStatement(
+        "UPDATE " + TABLE_NAME + " SET " + TEXT_HASH_COL + "=? WHERE " + ID_COL + "=?");
+    Cursor cursor = sqLiteDatabase.query(TABLE_NAME,
+                                         new String[] { ID_COL, TEXT_COL },
+                                         TEXT_COL + " IS NOT NULL",
+                                         null, null, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        update.bindLong(1, hashText(cursor.getString(1)));
+        update.bindLong(2, cursor.getLong(0));
+        update.execute();
+      }
+    } finally {
+      cursor.close();
+      update.close();
+    }
+  }
+
+  @TargetApi(16)
+  private void enableWriteAheadLoggingJellyBean() {
+    setWriteAheadLoggingEnabled(true);
+  }
+
+  @TargetApi(11)
+  private static void enableWriteAheadLoggingHoneycomb(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.enableWriteAheadLogging();
   }
 
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.ActivityNotFoundException;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+import com.google.zxing.client.android.R;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports history to a file on external storage in the background, then offers to send it. Rows are
+ * written straight from the database cursor to a buffered stream, so memory use doesn't grow with the
+ * size of history.
+ */
+final class ExportHistoryAsyncTask extends AsyncTask<Object,Integer,Uri> {
+
+  private static final String TAG = ExportHistoryAsyncTask.class.getSimpleName();
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int PROGRESS_INTERVAL = 100;
+
+  private final Activity activity;
+  private final HistoryManager historyManager;
+  private final HistoryExportFormat format;
+  private final boolean gzip;
+  private ProgressDialog progressDialog;
+
+  ExportHistoryAsyncTask(Activity activity,
+                         HistoryManager historyManager,
+                         HistoryExportFormat format,
+                         boolean gzip) {
+    this.activity = activity;
+    this.historyManager = historyManager;
+    this.format = format;
+    this.gzip = gzip;
+  }
+
+  @Override
+  protected void onPreExecute() {
+    progressDialog = new ProgressDialog(activity);
+    progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+    progressDialog.setMessage(activity.getString(R.string.history_exporting));
+    progressDialog.setCancelable(true);
+    progressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+      @Override
+      public void onCancel(DialogInterface dialog) {
+        cancel(false);
+      }
+    });
+    progressDialog.show();
+  }
+
+  @Override
+  protected Uri doInBackground(Object... args) {
+    String extension = format.getExtension();
+    if (gzip) {
+      extension += '.' + HistoryExportFormat.GZIP_EXTENSION;
+    }
+    File historyFile = HistoryManager.buildHistoryFile("history", extension);
+    if (historyFile == null) {
+      return null;
+    }
+    boolean complete = false;
+    Cursor cursor = null;
+    Writer out = null;
+    try {
+      OutputStream stream = new FileOutputStream(historyFile);
+      if (gzip) {
+        stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+      } else {
+        stream = new BufferedOutputStream(stream, BUFFER_SIZE);
+      }
+      out = new BufferedWriter(new OutputStreamWriter(stream, Charset.forName("UTF-8")), BUFFER_SIZE);
+      cursor = historyManager.openHistoryForExport();
+      int total = cursor.getCount();
+      int written = 0;
+      while (cursor.moveToNext()) {
+        if (isCancelled()) {
+          return null;
+        }
+        format.writeRow(cursor, out);
+        written++;
+        if (written % PROGRESS_INTERVAL == 0) {
+          publishProgress(written, total);
+        }
+      }
+      out.close();
+      out = null;
+      complete = true;
+      return Uri.parse("file://" + historyFile.getAbsolutePath());
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't access file " + historyFile + " due to " + ioe);
+      return null;
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException ioe) {
+          // do nothing
+        }
+      }
+      if (!complete && historyFile.exists() && !historyFile.delete()) {
+        Log.w(TAG, "Couldn't delete partial export " + historyFile);
+      }
+    }
+  }
+
+  @Override
+  protected void onProgressUpdate(Integer... progress) {
+    progressDialog.setMax(progress[1]);
+    progressDialog.setProgress(progress[0]);
+  }
+
+  @Override
+  protected void onCancelled() {
+    progressDialog.dismiss();
+  }
+
+  @Override
+  protected void onPostExecute(Uri historyFile) {
+    progressDialog.dismiss();
+    if (historyFile == null) {
+      AlertDialog.Builder builder = new AlertDialog.Builder(activity);
+      builder.setMessage(R.string.msg_unmount_usb);
+      builder.setPositiveButton(R.string.button_ok, null);
+      builder.show();
+    } else {
+      Intent intent = new Intent(Intent.ACTION_SEND, Uri.parse("mailto:"));
+      intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
+      String subject = activity.getResources().getString(R.string.history_email_title);
+      intent.putExtra(Intent.EXTRA_SUBJECT, subject);
+      intent.putExtra(Intent.EXTRA_TEXT, subject);
+      intent.putExtra(Intent.EXTRA_STREAM, historyFile);
+      intent.setType(gzip ? HistoryExportFormat.GZIP_MIME_TYPE : format.getMimeType());
+      try {
+        activity.startActivity(intent);
+      } catch (ActivityNotFoundException anfe) {
+        Log.w(TAG, anfe.toString());
+      }
+    }
+  }
+
+}
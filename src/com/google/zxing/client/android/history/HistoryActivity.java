@@ -19,64 +19,74 @@ package com.google.zxing.client.android.history;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ListActivity;
-import android.content.ActivityNotFoundException;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Bundle;
-import android.util.Log;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
 import com.google.zxing.client.android.CaptureActivity;
 import com.google.zxing.client.android.Intents;
 import com.google.zxing.client.android.R;
-
-import java.util.List;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
 
 public final class HistoryActivity extends ListActivity {
 
-  private static final String TAG = HistoryActivity.class.getSimpleName();
-
   private HistoryManager historyManager;
   private HistoryItemAdapter adapter;
+  private AsyncTaskExecInterface taskExec;
   
   @Override
   protected void onCreate(Bundle icicle) {
     super.onCreate(icicle);
+    setContentView(R.layout.history);
     this.historyManager = new HistoryManager(this);  
-    adapter = new HistoryItemAdapter(this);
+    adapter = new HistoryItemAdapter(this, historyManager);
+    taskExec = new AsyncTaskExecManager().build();
     setListAdapter(adapter);
     ListView listview = getListView();
     registerForContextMenu(listview);
+    EditText searchView = (EditText) findViewById(R.id.history_search);
+    searchView.addTextChangedListener(new TextWatcher() {
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+      }
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {
+      }
+      @Override
+      public void afterTextChanged(Editable s) {
+        String query = s.toString().trim();
+        adapter.setQuery(query.isEmpty() ? null : query);
+      }
+    });
   }
 
   @Override
   protected void onResume() {
     super.onResume();
-    reloadHistoryItems();
+    adapter.reload();
   }
 
-  private void reloadHistoryItems() {
-    List<HistoryItem> items = historyManager.buildHistoryItems();
-    adapter.clear();
-    for (HistoryItem item : items) {
-      adapter.add(item);
-    }
-    if (adapter.isEmpty()) {
-      adapter.add(new HistoryItem(null, null, null));
-    }
+  @Override
+  protected void onPause() {
+    adapter.cancel();
+    super.onPause();
   }
 
   @Override
   protected void onListItemClick(ListView l, View v, int position, long id) {
     if (adapter.getItem(position).getResult() != null) {
       Intent intent = new Intent(this, CaptureActivity.class);
-      intent.putExtra(Intents.History.ITEM_NUMBER, position);
+      intent.putExtra(Intents.History.ITEM_NUMBER, id);
       setResult(Activity.RESULT_OK, intent);
       finish();
     }
@@ -95,8 +105,9 @@ public final class HistoryActivity extends ListActivity {
   @Override
   public boolean onContextItemSelected(MenuItem item) {
     int position = item.getItemId();
-    historyManager.deleteHistoryItem(position);
-    reloadHistoryItems();
+    HistoryItem historyItem = adapter.getItem(position);
+    historyManager.deleteHistoryItem(historyItem.getId());
+    adapter.remove(historyItem);
     return true;
   }
 
@@ -113,27 +124,23 @@ public final class HistoryActivity extends ListActivity {
   public boolean onOptionsItemSelected(MenuItem item) {
     switch (item.getItemId()) {
       case R.id.menu_history_send:
-        CharSequence history = historyManager.buildHistory();
-        Uri historyFile = HistoryManager.saveHistory(history.toString());
-        if (historyFile == null) {
-          AlertDialog.Builder builder = new AlertDialog.Builder(this);
-          builder.setMessage(R.string.msg_unmount_usb);
-          builder.setPositiveButton(R.string.button_ok, null);
-          builder.show();
-        } else {
-          Intent intent = new Intent(Intent.ACTION_SEND, Uri.parse("mailto:"));
-          intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
-          String subject = getResources().getString(R.string.history_email_title);
-          intent.putExtra(Intent.EXTRA_SUBJECT, subject);
-          intent.putExtra(Intent.EXTRA_TEXT, subject);
-          intent.putExtra(Intent.EXTRA_STREAM, historyFile);
-          intent.setType("text/csv");
-          try {
-            startActivity(intent);
-          } catch (ActivityNotFoundException anfe) {
-            Log.w(TAG, anfe.toString());
+        AlertDialog.Builder formatBuilder = new AlertDialog.Builder(this);
+        formatBuilder.setTitle(R.string.history_send);
+        formatBuilder.setItems(R.array.history_export_format_options, new DialogInterface.OnClickListener() {
+          @Override
+          public void onClick(DialogInterface dialog, int which) {
+            // Options alternate plain and compressed for each format, in enum order
+            HistoryExportFormat format = HistoryExportFormat.values()[which / 2];
+            boolean gzip = which % 2 == 1;
+            taskExec.execute(new ExportHistoryAsyncTask(HistoryActivity.this, historyManager, format, gzip));
           }
-        }
+        });
+        formatBuilder.show();
+        break;
+      case R.id.menu_history_statistics:
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setClassName(this, StatisticsActivity.class.getName());
+        startActivity(intent);
         break;
       case R.id.menu_history_clear_text:
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
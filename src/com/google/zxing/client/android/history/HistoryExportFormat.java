@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.database.Cursor;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Formats in which history can be exported. Each writes one scan per call to
+ * {@link #writeRow(Cursor, Writer)}, from a cursor over {@link HistoryManager#openHistoryForExport()}.
+ */
+enum HistoryExportFormat {
+
+  /**
+   * <p>Each scan is encoded on one line, terminated by a line break (\r\n). The values in each line
+   * are comma-separated, and double-quoted. Double-quotes within values are escaped with a sequence
+   * of two double-quotes. The fields output are:</p>
+   *
+   * <ul>
+   *  <li>Raw text</li>
+   *  <li>Display text</li>
+   *  <li>Format (e.g. QR_CODE)</li>
+   *  <li>Timestamp</li>
+   *  <li>Formatted version of timestamp</li>
+   *  <li>Details</li>
+   * </ul>
+   */
+  CSV("csv", "text/csv") {
+    @Override
+    void writeRow(Cursor cursor, Writer out) throws IOException {
+      writeCSVField(cursor.getString(0), out);
+      out.write(',');
+      writeCSVField(cursor.getString(1), out);
+      out.write(',');
+      writeCSVField(cursor.getString(2), out);
+      out.write(',');
+      writeCSVField(cursor.getString(3), out);
+      out.write(',');
+      // Add timestamp again, formatted
+      writeCSVField(formatTimestamp(cursor.getLong(3)), out);
+      out.write(',');
+      // Above we're preserving the old ordering of columns which had formatted data in position 5
+      writeCSVField(cursor.getString(4), out);
+      out.write("\r\n");
+    }
+  },
+
+  /**
+   * One JSON object per line, terminated by \n, with keys {@code text}, {@code display},
+   * {@code format}, {@code timestamp}, {@code formattedTimestamp} and {@code details}.
+   */
+  JSON_LINES("jsonl", "application/x-ndjson") {
+    @Override
+    void writeRow(Cursor cursor, Writer out) throws IOException {
+      long timestamp = cursor.getLong(3);
+      out.write("{\"text\":");
+      out.write(JSONObject.quote(nullToEmpty(cursor.getString(0))));
+      out.write(",\"display\":");
+      out.write(JSONObject.quote(nullToEmpty(cursor.getString(1))));
+      out.write(",\"format\":");
+      out.write(JSONObject.quote(nullToEmpty(cursor.getString(2))));
+      out.write(",\"timestamp\":");
+      out.write(Long.toString(timestamp));
+      out.write(",\"formattedTimestamp\":");
+      out.write(JSONObject.quote(formatTimestamp(timestamp)));
+      out.write(",\"details\":");
+      out.write(JSONObject.quote(nullToEmpty(cursor.getString(4))));
+      out.write("}\n");
+    }
+  };
+
+  static final String GZIP_EXTENSION = "gz";
+  static final String GZIP_MIME_TYPE = "application/x-gzip";
+
+  private static final DateFormat EXPORT_DATE_TIME_FORMAT =
+      DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+
+  private final String extension;
+  private final String mimeType;
+
+  HistoryExportFormat(String extension, String mimeType) {
+    this.extension = extension;
+    this.mimeType = mimeType;
+  }
+
+  String getExtension() {
+    return extension;
+  }
+
+  String getMimeType() {
+    return mimeType;
+  }
+
+  abstract void writeRow(Cursor cursor, Writer out) throws IOException;
+
+  private static String formatTimestamp(long timestamp) {
+    // DateFormat isn't thread-safe
+    synchronized (EXPORT_DATE_TIME_FORMAT) {
+      return EXPORT_DATE_TIME_FORMAT.format(new Date(timestamp));
+    }
+  }
+
+  private static void writeCSVField(String value, Writer out) throws IOException {
+    out.write('"');
+    if (value != null) {
+      out.write(value.replace("\"", "\"\""));
+    }
+    out.write('"');
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+
+}
@@ -18,28 +18,135 @@ package com.google.zxing.client.android.history;
 
 import android.app.Activity;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-final class HistoryItemAdapter extends ArrayAdapter<HistoryItem> {
+/**
+ * Shows the history a page at a time. Pages are read from the database in the background, and the next
+ * one is requested as the list scrolls near the end of what has been loaded so far. Thumbnails are likewise
+ * decoded in the background as items come into view.
+ */
+final class HistoryItemAdapter extends BaseAdapter {
+
+  private static final int PAGE_SIZE = 50;
+  private static final int PREFETCH_DISTANCE = 10;
+
+  // Shown in place of the list when there is no history
+  private static final HistoryItem EMPTY_ITEM = new HistoryItem(-1L, null, null, null);
 
   private final Activity activity;
+  private final HistoryManager historyManager;
+  private final AsyncTaskExecInterface taskExec;
+  private final List<HistoryItem> items;
+  private final ThumbnailStore thumbnails;
+  private final int thumbnailSize;
+  private final Set<Long> loadingThumbnails;
+  private final Set<Long> missingThumbnails;
+  private LoadPageAsyncTask pendingLoad;
+  private String query;
+  private boolean loaded;
+  private boolean hasMore;
 
-  HistoryItemAdapter(Activity activity) {
-    super(activity, R.layout.history_list_item, new ArrayList<HistoryItem>());
+  HistoryItemAdapter(Activity activity, HistoryManager historyManager) {
     this.activity = activity;
+    this.historyManager = historyManager;
+    taskExec = new AsyncTaskExecManager().build();
+    items = new ArrayList<HistoryItem>();
+    thumbnails = ThumbnailStore.getInstance(activity);
+    thumbnailSize = activity.getResources().getDimensionPixelSize(R.dimen.history_thumbnail_size);
+    loadingThumbnails = new HashSet<Long>();
+    missingThumbnails = new HashSet<Long>();
+  }
+
+  /**
+   * Reloads from the first page. Items already shown stay until it arrives, to avoid flicker.
+   */
+  void reload() {
+    cancel();
+    loadPage(null);
+  }
+
+  /**
+   * Shows only the items matching a search, from the first page.
+   *
+   * @param query search text, or {@code null} to show all items
+   */
+  void setQuery(String query) {
+    this.query = query;
+    reload();
+  }
+
+  /**
+   * Removes one item, as after deleting it from history, without reloading anything.
+   */
+  void remove(HistoryItem item) {
+    if (items.remove(item)) {
+      if (items.isEmpty() && hasMore) {
+        // Nothing left on screen to trigger loading the next page
+        reload();
+      }
+      notifyDataSetChanged();
+    }
+  }
+
+  void cancel() {
+    if (pendingLoad != null) {
+      pendingLoad.cancel(true);
+      pendingLoad = null;
+    }
+  }
+
+  private void loadPage(HistoryItem after) {
+    pendingLoad = new LoadPageAsyncTask(after, query);
+    taskExec.execute(pendingLoad);
+  }
+
+  private boolean isShowingEmpty() {
+    return loaded && items.isEmpty() && !hasMore;
+  }
+
+  @Override
+  public int getCount() {
+    return isShowingEmpty() ? 1 : items.size();
+  }
+
+  @Override
+  public HistoryItem getItem(int position) {
+    return isShowingEmpty() ? EMPTY_ITEM : items.get(position);
+  }
+
+  @Override
+  public long getItemId(int position) {
+    return getItem(position).getId();
+  }
+
+  @Override
+  public boolean hasStableIds() {
+    return true;
   }
 
   @Override
   public View getView(int position, View view, ViewGroup viewGroup) {
+    if (hasMore && pendingLoad == null && position >= items.size() - PREFETCH_DISTANCE) {
+      loadPage(items.get(items.size() - 1));
+    }
+
     LinearLayout layout;
     if (view instanceof LinearLayout) {
       layout = (LinearLayout) view;
@@ -57,15 +164,89 @@ final class HistoryItemAdapter extends ArrayAdapter<HistoryItem> {
       title = result.getText();
       detail = item.getDisplayAndDetails();      
     } else {
-      Resources resources = getContext().getResources();
+      Resources resources = activity.getResources();
       title = resources.getString(R.string.history_empty);
-      detail = resources.getString(R.string.history_empty_detail);
+      detail = resources.getString(
+          query == null ? R.string.history_empty_detail : R.string.history_no_matches_detail);
     }
 
     ((TextView) layout.findViewById(R.id.history_title)).setText(title);    
     ((TextView) layout.findViewById(R.id.history_detail)).setText(detail);
+    ((ImageView) layout.findViewById(R.id.history_thumbnail)).setImageBitmap(getThumbnail(item.getId()));
 
     return layout;
   }
 
+  /**
+   * @return thumbnail if it's in memory; otherwise {@code null}, and it's loaded in the background
+   */
+  private Bitmap getThumbnail(long id) {
+    if (id < 0L || missingThumbnails.contains(id)) {
+      return null;
+    }
+    Bitmap thumbnail = thumbnails.getCached(id, thumbnailSize);
+    if (thumbnail == null && loadingThumbnails.add(id)) {
+      taskExec.execute(new LoadThumbnailAsyncTask(id));
+    }
+    return thumbnail;
+  }
+
+  private final class LoadPageAsyncTask extends AsyncTask<Object,Object,List<HistoryItem>> {
+
+    private final HistoryItem after;
+    private final String query;
+
+    LoadPageAsyncTask(HistoryItem after, String query) {
+      this.after = after;
+      this.query = query;
+    }
+
+    @Override
+    protected List<HistoryItem> doInBackground(Object... args) {
+      return historyManager.buildHistoryItems(after, PAGE_SIZE, query);
+    }
+
+    @Override
+    protected void onPostExecute(List<HistoryItem> page) {
+      if (pendingLoad != this) {
+        return;
+      }
+      pendingLoad = null;
+      if (after == null) {
+        items.clear();
+      }
+      items.addAll(page);
+      hasMore = page.size() == PAGE_SIZE;
+      loaded = true;
+      notifyDataSetChanged();
+    }
+
+  }
+
+  private final class LoadThumbnailAsyncTask extends AsyncTask<Object,Object,Bitmap> {
+
+    private final long id;
+
+    LoadThumbnailAsyncTask(long id) {
+      this.id = id;
+    }
+
+    @Override
+    protected Bitmap doInBackground(Object... args) {
+      return thumbnails.loadScaled(id, thumbnailSize);
+    }
+
+    @Override
+    protected void onPostExecute(Bitmap thumbnail) {
+      loadingThumbnails.remove(id);
+      if (thumbnail == null) {
+        missingThumbnails.add(id);
+      } else {
+        // Now in memory, so rebinding shows it wherever the item is on screen
+        notifyDataSetChanged();
+      }
+    }
+
+  }
+
 }
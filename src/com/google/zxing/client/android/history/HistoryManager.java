@@ -16,11 +16,12 @@
 
 package com.google.zxing.client.android.history;
 
-import android.database.sqlite.SQLiteException;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.Intents;
 import com.google.zxing.client.android.PreferencesActivity;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
 import com.google.zxing.client.android.result.ResultHandler;
 
 import android.app.Activity;
@@ -28,20 +29,14 @@ import android.content.ContentValues;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
-import android.net.Uri;
+import android.graphics.Bitmap;
 import android.os.Environment;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
-import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 /**
@@ -54,103 +49,166 @@ public final class HistoryManager {
   private static final String TAG = HistoryManager.class.getSimpleName();
 
   private static final int MAX_ITEMS = 2000;
+  private static final long DAY_MS = 24L * 60L * 60L * 1000L;
 
   private static final String[] COLUMNS = {
       DBHelper.TEXT_COL,
       DBHelper.DISPLAY_COL,
       DBHelper.FORMAT_COL,
       DBHelper.TIMESTAMP_COL,
-      DBHelper.DETAILS_COL,
+      DBHelper.DETAILS_PROJECTION,
+      DBHelper.ID_COL,
   };
 
-  private static final String[] COUNT_COLUMN = { "COUNT(1)" };
-
   private static final String[] ID_COL_PROJECTION = { DBHelper.ID_COL };
-  private static final String[] ID_DETAIL_COL_PROJECTION = { DBHelper.ID_COL, DBHelper.DETAILS_COL };
-  private static final DateFormat EXPORT_DATE_TIME_FORMAT =
-      DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+
+  private static final String[] SCAN_COUNT_COLUMNS = {
+      DBHelper.STATS_HOUR_COL + '*' + DBHelper.STATS_BUCKET_MS,
+      DBHelper.FORMAT_COL,
+      DBHelper.STATS_COUNT_COL,
+  };
+  private static final String[] DAILY_SCAN_COUNT_COLUMNS = {
+      "MIN(" + DBHelper.STATS_HOUR_COL + ")*" + DBHelper.STATS_BUCKET_MS,
+      DBHelper.FORMAT_COL,
+      "SUM(" + DBHelper.STATS_COUNT_COL + ')',
+  };
+  // Hours are grouped by the local date they start on
+  private static final String LOCAL_DAY =
+      "date(" + DBHelper.STATS_HOUR_COL + '*' + (DBHelper.STATS_BUCKET_MS / 1000L) + ",'unixepoch','localtime')";
+  private static final String SCAN_COUNTS_SINCE_SELECTION = DBHelper.STATS_HOUR_COL + ">=?";
+
+  private static final String ID_SELECTION = DBHelper.ID_COL + "=?";
+  // Ties on timestamp are broken by ID; the timestamp index includes the row ID so serves both
+  private static final String PAGE_ORDER_BY = DBHelper.TIMESTAMP_COL + " DESC, " + DBHelper.ID_COL + " DESC";
+  private static final String PAGE_AFTER_SELECTION =
+      DBHelper.TIMESTAMP_COL + "<=? AND (" + DBHelper.TIMESTAMP_COL + "<? OR " + DBHelper.ID_COL + "<?)";
 
   private final Activity activity;
+  private final AsyncTaskExecInterface taskExec;
+  private final HistoryWriter writer;
+  private final ThumbnailStore thumbnails;
 
   public HistoryManager(Activity activity) {
     this.activity = activity;
+    taskExec = new AsyncTaskExecManager().build();
+    writer = HistoryWriter.getInstance(activity);
+    thumbnails = ThumbnailStore.getInstance(activity);
   }
 
   public boolean hasHistoryItems() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
+    // A queued write is either a new item, or a change to one that exists
+    if (writer.hasPending()) {
+      return true;
+    }
+    SQLiteDatabase db = DBHelper.getInstance(activity).getReadableDatabase();
     Cursor cursor = null;
     try {
-      db = helper.getReadableDatabase();
-      cursor = db.query(DBHelper.TABLE_NAME, COUNT_COLUMN, null, null, null, null, null);
-      cursor.moveToFirst();
-      return cursor.getInt(0) > 0;
+      cursor = db.query(DBHelper.TABLE_NAME, ID_COL_PROJECTION, null, null, null, null, null, "1");
+      return cursor.moveToFirst();
     } finally {
-      close(cursor, db);
+      close(cursor);
     }
   }
 
-  public List<HistoryItem> buildHistoryItems() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    List<HistoryItem> items = new ArrayList<HistoryItem>();
-    SQLiteDatabase db = null;
+  /**
+   * Reads one page of history, most recent first. Pages are located by the last item of the
+   * previous page rather than by offset, so each page costs the same no matter how deep it is,
+   * and scans added in the meantime don't shift later pages.
+   *
+   * @param after last item of the previous page, or {@code null} for the first page
+   * @param pageSize maximum number of items to return
+   * @param query if not {@code null}, only items with text, display text or details containing
+   *  words starting with each word of this are returned
+   * @return the items following {@code after}. Waits for queued writes, so call off the main thread.
+   */
+  public List<HistoryItem> buildHistoryItems(HistoryItem after, int pageSize, String query) {
+    writer.awaitWrites();
+    SQLiteDatabase db = DBHelper.getInstance(activity).getReadableDatabase();
+    List<HistoryItem> items = new ArrayList<HistoryItem>(pageSize);
+    List<String> conditions = new ArrayList<String>(2);
+    List<String> selectionArgs = new ArrayList<String>(4);
+    if (after != null) {
+      String timestamp = Long.toString(after.getResult().getTimestamp());
+      conditions.add(PAGE_AFTER_SELECTION);
+      selectionArgs.add(timestamp);
+      selectionArgs.add(timestamp);
+      selectionArgs.add(Long.toString(after.getId()));
+    }
+    String matchQuery = query == null ? null : DBHelper.buildMatchQuery(query);
+    if (matchQuery != null) {
+      conditions.add(DBHelper.MATCH_SELECTION);
+      selectionArgs.add(matchQuery);
+    }
+    String selection = conditions.isEmpty() ? null : TextUtils.join(" AND ", conditions);
     Cursor cursor = null;
     try {
-      db = helper.getReadableDatabase();
-      cursor = db.query(DBHelper.TABLE_NAME, COLUMNS, null, null, null, null, DBHelper.TIMESTAMP_COL + " DESC");
+      cursor = db.query(DBHelper.TABLE_NAME, COLUMNS, selection,
+                        selectionArgs.toArray(new String[selectionArgs.size()]), null, null,
+                        PAGE_ORDER_BY, Integer.toString(pageSize));
       while (cursor.moveToNext()) {
         String text = cursor.getString(0);
         String display = cursor.getString(1);
         String format = cursor.getString(2);
         long timestamp = cursor.getLong(3);
         String details = cursor.getString(4);
+        long id = cursor.getLong(5);
         Result result = new Result(text, null, null, BarcodeFormat.valueOf(format), timestamp);
-        items.add(new HistoryItem(result, display, details));
+        items.add(new HistoryItem(id, result, display, details));
       }
     } finally {
-      close(cursor, db);
+      close(cursor);
     }
     return items;
   }
 
-  public HistoryItem buildHistoryItem(int number) {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
+  /**
+   * @param id row ID of the history item, as from {@link HistoryItem#getId()}
+   * @return the item, or {@code null} if it no longer exists. Waits for queued writes, so call off the main
+   *  thread.
+   */
+  public HistoryItem buildHistoryItem(long id) {
+    writer.awaitWrites();
+    SQLiteDatabase db = DBHelper.getInstance(activity).getReadableDatabase();
     Cursor cursor = null;
     try {
-      db = helper.getReadableDatabase();
-      cursor = db.query(DBHelper.TABLE_NAME, COLUMNS, null, null, null, null, DBHelper.TIMESTAMP_COL + " DESC");
-      cursor.move(number + 1);
+      cursor = db.query(DBHelper.TABLE_NAME, COLUMNS, ID_SELECTION, new String[] { Long.toString(id) },
+                        null, null, null);
+      if (!cursor.moveToFirst()) {
+        return null;
+      }
       String text = cursor.getString(0);
       String display = cursor.getString(1);
       String format = cursor.getString(2);
       long timestamp = cursor.getLong(3);
       String details = cursor.getString(4);
       Result result = new Result(text, null, null, BarcodeFormat.valueOf(format), timestamp);
-      return new HistoryItem(result, display, details);
+      return new HistoryItem(id, result, display, details);
     } finally {
-      close(cursor, db);
+      close(cursor);
     }
   }
   
-  public void deleteHistoryItem(int number) {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
-    Cursor cursor = null;
-    try {
-      db = helper.getWritableDatabase();      
-      cursor = db.query(DBHelper.TABLE_NAME,
-                        ID_COL_PROJECTION,
-                        null, null, null, null,
-                        DBHelper.TIMESTAMP_COL + " DESC");
-      cursor.move(number + 1);
-      db.delete(DBHelper.TABLE_NAME, DBHelper.ID_COL + '=' + cursor.getString(0), null);
-    } finally {
-      close(cursor, db);
-    }
+  /**
+   * @param id row ID of the history item, as from {@link HistoryItem#getId()}
+   */
+  public void deleteHistoryItem(long id) {
+    writer.delete(id);
+  }
+
+  /**
+   * @param id row ID of the history item, as from {@link HistoryItem#getId()}
+   * @return image of the scan, or {@code null} if none was kept. This may read from disk.
+   */
+  public Bitmap buildHistoryThumbnail(long id) {
+    return thumbnails.load(id);
   }
 
-  public void addHistoryItem(Result result, ResultHandler handler) {
+  /**
+   * @param result the scan
+   * @param handler handler for the scan's result
+   * @param thumbnail image of the scan to keep with it, or {@code null}. It must not be modified afterwards.
+   */
+  public void addHistoryItem(Result result, ResultHandler handler, Bitmap thumbnail) {
     // Do not save this item to the history if the preference is turned off, or the contents are
     // considered secure.
     if (!activity.getIntent().getBooleanExtra(Intents.Scan.SAVE_HISTORY, true) ||
@@ -159,205 +217,140 @@ public final class HistoryManager {
     }
 
     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
-    if (!prefs.getBoolean(PreferencesActivity.KEY_REMEMBER_DUPLICATES, false)) {
-      deletePrevious(result.getText());
-    }
+    boolean rememberDuplicates = prefs.getBoolean(PreferencesActivity.KEY_REMEMBER_DUPLICATES, false);
 
     ContentValues values = new ContentValues();
     values.put(DBHelper.TEXT_COL, result.getText());
+    values.put(DBHelper.TEXT_HASH_COL, DBHelper.hashText(result.getText()));
     values.put(DBHelper.FORMAT_COL, result.getBarcodeFormat().toString());
     values.put(DBHelper.DISPLAY_COL, handler.getDisplayContents().toString());
     values.put(DBHelper.TIMESTAMP_COL, System.currentTimeMillis());
 
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
-    try {
-      db = helper.getWritableDatabase();      
-      // Insert the new entry into the DB.
-      db.insert(DBHelper.TABLE_NAME, DBHelper.TIMESTAMP_COL, values);
-    } finally {
-      close(null, db);
-    }
+    writer.insert(values, !rememberDuplicates, thumbnail);
   }
 
-  public void addHistoryItemDetails(String itemID, String itemDetails) {
+  /**
+   * Sets the supplemental details from one source for the most recent scan of some text. Details
+   * previously set by the same source are replaced.
+   *
+   * @param itemID text of the scan
+   * @param source identifies what found the details
+   * @param itemDetails the details
+   */
+  public void addHistoryItemDetails(String itemID, String source, String itemDetails) {
     // As we're going to do an update only we don't need need to worry
     // about the preferences; if the item wasn't saved it won't be udpated
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;    
-    Cursor cursor = null;
-    try {
-      db = helper.getWritableDatabase();
-      cursor = db.query(DBHelper.TABLE_NAME,
-                        ID_DETAIL_COL_PROJECTION,
-                        DBHelper.TEXT_COL + "=?",
-                        new String[] { itemID },
-                        null,
-                        null,
-                        DBHelper.TIMESTAMP_COL + " DESC",
-                        "1");
-      String oldID = null;
-      String oldDetails = null;
-      if (cursor.moveToNext()) {
-        oldID = cursor.getString(0);
-        oldDetails = cursor.getString(1);
-      }
-
-      if (oldID != null) {
-        String newDetails;
-        if (oldDetails == null) {
-          newDetails = itemDetails;
-        } else if (oldDetails.contains(itemDetails)) {
-          newDetails = null;
-        } else {
-          newDetails = oldDetails + " : " + itemDetails;
-        } 
-        if (newDetails != null) {
-          ContentValues values = new ContentValues();
-          values.put(DBHelper.DETAILS_COL, newDetails);
-          db.update(DBHelper.TABLE_NAME, values, DBHelper.ID_COL + "=?", new String[] { oldID });
-        }
-      }
-
-    } finally {
-      close(cursor, db);
-    }
+    writer.setDetails(itemID, source, itemDetails);
   }
 
-  private void deletePrevious(String text) {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
-    try {
-      db = helper.getWritableDatabase();      
-      db.delete(DBHelper.TABLE_NAME, DBHelper.TEXT_COL + "=?", new String[] { text });
-    } finally {
-      close(null, db);
-    }
+  /**
+   * Writes any queued history changes soon, in the background, rather than after a short delay.
+   */
+  public void flush() {
+    writer.flush();
   }
 
+  /**
+   * Deletes scans beyond {@link #MAX_ITEMS}, and those older than the age set in preferences,
+   * in the background.
+   */
   public void trimHistory() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
-    Cursor cursor = null;
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
+    long maxAgeMS;
     try {
-      db = helper.getWritableDatabase();      
-      cursor = db.query(DBHelper.TABLE_NAME,
-                        ID_COL_PROJECTION,
-                        null, null, null, null,
-                        DBHelper.TIMESTAMP_COL + " DESC");
-      cursor.move(MAX_ITEMS);
-      while (cursor.moveToNext()) {
-        String id = cursor.getString(0);
-        Log.i(TAG, "Deleting scan history ID " + id);
-        db.delete(DBHelper.TABLE_NAME, DBHelper.ID_COL + '=' + id, null);
-      }
-    } catch (SQLiteException sqle) {
-      // We're seeing an error here when called in CaptureActivity.onCreate() in rare cases
-      // and don't understand it. First theory is that it's transient so can be safely ignored.
-      Log.w(TAG, sqle);
-      // continue
-    } finally {
-      close(cursor, db);
+      maxAgeMS = Integer.parseInt(prefs.getString(PreferencesActivity.KEY_HISTORY_MAX_AGE, "0")) * DAY_MS;
+    } catch (NumberFormatException nfe) {
+      Log.w(TAG, nfe);
+      maxAgeMS = 0L;
     }
+    taskExec.execute(new TrimHistoryAsyncTask(DBHelper.getInstance(activity), thumbnails, MAX_ITEMS, maxAgeMS));
   }
 
   /**
-   * <p>Builds a text representation of the scanning history. Each scan is encoded on one
-   * line, terminated by a line break (\r\n). The values in each line are comma-separated,
-   * and double-quoted. Double-quotes within values are escaped with a sequence of two
-   * double-quotes. The fields output are:</p>
+   * Opens a cursor over all of history, most recent first, for export. Rows are read from the database
+   * a window at a time as the cursor advances, so the whole history is never held in memory.
+   * The caller must close the cursor.
    *
-   * <ul>
-   *  <li>Raw text</li>
-   *  <li>Display text</li>
-   *  <li>Format (e.g. QR_CODE)</li>
-   *  <li>Timestamp</li>
-   *  <li>Formatted version of timestamp</li>
-   * </ul>
+   * @see HistoryExportFormat
    */
-  CharSequence buildHistory() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
-    Cursor cursor = null;
-    try {
-      db = helper.getWritableDatabase();
-      cursor = db.query(DBHelper.TABLE_NAME,
-                        COLUMNS,
-                        null, null, null, null,
-                        DBHelper.TIMESTAMP_COL + " DESC");
-
-      StringBuilder historyText = new StringBuilder(1000);
-      while (cursor.moveToNext()) {
-
-        historyText.append('"').append(massageHistoryField(cursor.getString(0))).append("\",");
-        historyText.append('"').append(massageHistoryField(cursor.getString(1))).append("\",");
-        historyText.append('"').append(massageHistoryField(cursor.getString(2))).append("\",");
-        historyText.append('"').append(massageHistoryField(cursor.getString(3))).append("\",");
-
-        // Add timestamp again, formatted
-        long timestamp = cursor.getLong(3);
-        historyText.append('"').append(massageHistoryField(
-            EXPORT_DATE_TIME_FORMAT.format(new Date(timestamp)))).append("\",");
-
-        // Above we're preserving the old ordering of columns which had formatted data in position 5
-
-        historyText.append('"').append(massageHistoryField(cursor.getString(4))).append("\"\r\n");
-      }
-      return historyText;
-    } finally {
-      close(cursor, db);
-    }
+  Cursor openHistoryForExport() {
+    writer.awaitWrites();
+    SQLiteDatabase db = DBHelper.getInstance(activity).getReadableDatabase();
+    return db.query(DBHelper.TABLE_NAME,
+                    COLUMNS,
+                    null, null, null, null,
+                    DBHelper.TIMESTAMP_COL + " DESC");
   }
   
   void clearHistory() {
-    SQLiteOpenHelper helper = new DBHelper(activity);
-    SQLiteDatabase db = null;
-    try {
-      db = helper.getWritableDatabase();      
-      db.delete(DBHelper.TABLE_NAME, null, null);
-    } finally {
-      close(null, db);
-    }
+    writer.clear();
+  }
+
+  /**
+   * Opens a cursor over scan counts per format and hour, most recent first. Its columns are the start
+   * of the hour in milliseconds since the epoch, the format, and the number of scans. This reads only
+   * the summary table, so costs the same however large history is. The caller must close the cursor.
+   */
+  Cursor openScanCounts() {
+    writer.awaitWrites();
+    SQLiteDatabase db = DBHelper.getInstance(activity).getReadableDatabase();
+    return db.query(DBHelper.STATS_TABLE_NAME,
+                    SCAN_COUNT_COLUMNS,
+                    null, null, null, null,
+                    DBHelper.STATS_HOUR_COL + " DESC, " + DBHelper.FORMAT_COL);
+  }
+
+  /**
+   * Like {@link #openScanCounts()}, but only for hours from {@code since}, in milliseconds since the epoch.
+   */
+  Cursor openScanCounts(long since) {
+    writer.awaitWrites();
+    SQLiteDatabase db = DBHelper.getInstance(activity).getReadableDatabase();
+    return db.query(DBHelper.STATS_TABLE_NAME,
+                    SCAN_COUNT_COLUMNS,
+                    SCAN_COUNTS_SINCE_SELECTION,
+                    new String[] { Long.toString(since / DBHelper.STATS_BUCKET_MS) },
+                    null, null,
+                    DBHelper.STATS_HOUR_COL + " DESC, " + DBHelper.FORMAT_COL);
   }
 
-  static Uri saveHistory(String history) {
+  /**
+   * Opens a cursor over scan counts per format and local day, from {@code since}, most recent first. They're
+   * summed by the database, from hours in that range only. Columns are as for {@link #openScanCounts()},
+   * the first being the start of the day's first hour with scans.
+   */
+  Cursor openDailyScanCounts(long since) {
+    writer.awaitWrites();
+    SQLiteDatabase db = DBHelper.getInstance(activity).getReadableDatabase();
+    return db.query(DBHelper.STATS_TABLE_NAME,
+                    DAILY_SCAN_COUNT_COLUMNS,
+                    SCAN_COUNTS_SINCE_SELECTION,
+                    new String[] { Long.toString(since / DBHelper.STATS_BUCKET_MS) },
+                    LOCAL_DAY + ", " + DBHelper.FORMAT_COL,
+                    null,
+                    LOCAL_DAY + " DESC, " + DBHelper.FORMAT_COL);
+  }
+
+  /**
+   * @param name start of the file name, which is followed by a timestamp
+   * @param extension file name extension for the export
+   * @return new file to export to, or {@code null} if external storage isn't available
+   */
+  static File buildHistoryFile(String name, String extension) {
     File bsRoot = new File(Environment.getExternalStorageDirectory(), "BarcodeScanner");
     File historyRoot = new File(bsRoot, "History");
     if (!historyRoot.exists() && !historyRoot.mkdirs()) {
       Log.w(TAG, "Couldn't make dir " + historyRoot);
       return null;
     }
-    File historyFile = new File(historyRoot, "history-" + System.currentTimeMillis() + ".csv");
-    OutputStreamWriter out = null;
-    try {
-      out = new OutputStreamWriter(new FileOutputStream(historyFile), Charset.forName("UTF-8"));
-      out.write(history);
-      return Uri.parse("file://" + historyFile.getAbsolutePath());
-    } catch (IOException ioe) {
-      Log.w(TAG, "Couldn't access file " + historyFile + " due to " + ioe);
-      return null;
-    } finally {
-      if (out != null) {
-        try {
-          out.close();
-        } catch (IOException ioe) {
-          // do nothing
-        }
-      }
-    }
+    return new File(historyRoot, name + '-' + System.currentTimeMillis() + '.' + extension);
   }
 
-  private static String massageHistoryField(String value) {
-    return value == null ? "" : value.replace("\"","\"\"");
-  }
-  
-  private static void close(Cursor cursor, SQLiteDatabase database) {
+  // The database itself is shared and deliberately left open; see DBHelper
+  private static void close(Cursor cursor) {
     if (cursor != null) {
       cursor.close();
     }
-    if (database != null) {
-      database.close();
-    }
   }
 
 }
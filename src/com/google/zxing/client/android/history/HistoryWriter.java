@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>Queues writes to the history database and applies them on a background thread, batching whatever
+ * has accumulated into one transaction. A batch is written {@link #FLUSH_DELAY_MS} after its first write
+ * was queued, or as soon as it reaches {@link #MAX_BATCH_SIZE} writes.</p>
+ *
+ * <p>Writes are applied in the order they were queued, always on that thread, never the caller's. Callers
+ * that read history should call {@link #awaitWrites()} first, from a background thread, so that they see
+ * their own writes.</p>
+ */
+final class HistoryWriter {
+
+  private static final String TAG = HistoryWriter.class.getSimpleName();
+
+  private static final long FLUSH_DELAY_MS = 300L;
+  private static final int MAX_BATCH_SIZE = 20;
+
+  private static HistoryWriter instance;
+
+  private final SQLiteOpenHelper helper;
+  private final ThumbnailStore thumbnails;
+  private final Handler handler;
+  private final List<Operation> pending; // guarded by this
+  private final Runnable flushTask;
+
+  private HistoryWriter(SQLiteOpenHelper helper, ThumbnailStore thumbnails) {
+    this.helper = helper;
+    this.thumbnails = thumbnails;
+    HandlerThread thread = new HandlerThread(TAG);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    pending = new ArrayList<Operation>();
+    flushTask = new Runnable() {
+      @Override
+      public void run() {
+        writeBatch();
+      }
+    };
+  }
+
+  static synchronized HistoryWriter getInstance(Context context) {
+    if (instance == null) {
+      instance = new HistoryWriter(DBHelper.getInstance(context), ThumbnailStore.getInstance(context));
+    }
+    return instance;
+  }
+
+  /**
+   * @param values new history row
+   * @param deletePrevious whether to first delete earlier rows with the same text
+   * @param thumbnail image of the scan, saved under the new row's ID once it commits; may be {@code null}
+   */
+  void insert(ContentValues values, boolean deletePrevious, Bitmap thumbnail) {
+    enqueue(new Insert(values, deletePrevious, thumbnail));
+  }
+
+  /**
+   * @param text text of the scan whose most recent row is updated; nothing happens if there is none
+   * @param source identifies what found the details; replaces earlier details from the same source
+   * @param details supplemental details for that row
+   */
+  void setDetails(String text, String source, String details) {
+    enqueue(new SetDetails(text, source, details));
+  }
+
+  /**
+   * @param id row ID of the history item to delete, with its thumbnail
+   */
+  void delete(long id) {
+    enqueue(new Delete(id));
+  }
+
+  /**
+   * Deletes all history items, and their thumbnails.
+   */
+  void clear() {
+    enqueue(new Clear());
+  }
+
+  /**
+   * @return true if writes are queued that haven't been committed yet
+   */
+  synchronized boolean hasPending() {
+    return !pending.isEmpty();
+  }
+
+  private synchronized void enqueue(Operation operation) {
+    pending.add(operation);
+    if (pending.size() >= MAX_BATCH_SIZE) {
+      handler.removeCallbacks(flushTask);
+      handler.post(flushTask);
+    } else if (pending.size() == 1) {
+      handler.postDelayed(flushTask, FLUSH_DELAY_MS);
+    }
+  }
+
+  /**
+   * Writes everything queued so far on the writer's thread as soon as it's free, rather than after a delay.
+   * Returns at once.
+   */
+  void flush() {
+    synchronized (this) {
+      handler.removeCallbacks(flushTask);
+    }
+    handler.post(flushTask);
+  }
+
+  /**
+   * Writes everything queued so far, and waits until it and the thumbnails it saves are written. Blocks, so
+   * must not be called from the main thread.
+   */
+  void awaitWrites() {
+    final CountDownLatch written = new CountDownLatch(1);
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        writeBatch();
+        written.countDown();
+      }
+    });
+    try {
+      written.await();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Only called on the writer's thread
+  private void writeBatch() {
+    List<Operation> batch;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      batch = new ArrayList<Operation>(pending);
+      pending.clear();
+      handler.removeCallbacks(flushTask);
+    }
+    try {
+      SQLiteDatabase db = helper.getWritableDatabase();
+      db.beginTransaction();
+      try {
+        for (Operation operation : batch) {
+          operation.execute(db);
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    } catch (SQLiteException sqle) {
+      Log.w(TAG, "Dropped " + batch.size() + " history writes", sqle);
+      return;
+    }
+    for (Operation operation : batch) {
+      operation.committed(thumbnails);
+    }
+  }
+
+  private interface Operation {
+    void execute(SQLiteDatabase db);
+    void committed(ThumbnailStore thumbnails);
+  }
+
+  private static final class Insert implements Operation {
+
+    private final ContentValues values;
+    private final boolean deletePrevious;
+    private final Bitmap thumbnail;
+    private long[] deletedIDs;
+    private long id;
+
+    Insert(ContentValues values, boolean deletePrevious, Bitmap thumbnail) {
+      this.values = values;
+      this.deletePrevious = deletePrevious;
+      this.thumbnail = thumbnail;
+      id = -1L;
+    }
+
+    @Override
+    public void execute(SQLiteDatabase db) {
+      if (deletePrevious) {
+        String[] selectionArgs = DBHelper.textSelectionArgs(values.getAsString(DBHelper.TEXT_COL));
+        deletedIDs = DBHelper.selectIDs(db, DBHelper.TEXT_SELECTION, selectionArgs);
+        db.delete(DBHelper.TABLE_NAME, DBHelper.TEXT_SELECTION, selectionArgs);
+      }
+      // Insert the new entry into the DB.
+      id = db.insert(DBHelper.TABLE_NAME, DBHelper.TIMESTAMP_COL, values);
+    }
+
+    @Override
+    public void committed(ThumbnailStore thumbnails) {
+      // First, since the new row may reuse a deleted row's ID
+      if (deletedIDs != null) {
+        for (long deletedID : deletedIDs) {
+          thumbnails.remove(deletedID);
+        }
+      }
+      if (thumbnail != null && id >= 0L) {
+        thumbnails.put(id, thumbnail);
+      }
+    }
+
+  }
+
+  private static final class SetDetails implements Operation {
+
+    private final String text;
+    private final String source;
+    private final String details;
+
+    SetDetails(String text, String source, String details) {
+      this.text = text;
+      this.source = source;
+      this.details = details;
+    }
+
+    @Override
+    public void execute(SQLiteDatabase db) {
+      db.execSQL(DBHelper.UPSERT_DETAILS_SQL, new Object[] { source, details, DBHelper.hashText(text), text });
+    }
+
+    @Override
+    public void committed(ThumbnailStore thumbnails) {
+      // nothing to do
+    }
+
+  }
+
+  private static final class Delete implements Operation {
+
+    private final long id;
+
+    Delete(long id) {
+      this.id = id;
+    }
+
+    @Override
+    public void execute(SQLiteDatabase db) {
+      db.delete(DBHelper.TABLE_NAME, DBHelper.ID_COL + "=?", new String[] { Long.toString(id) });
+    }
+
+    @Override
+    public void committed(ThumbnailStore thumbnails) {
+      thumbnails.remove(id);
+    }
+
+  }
+
+  private static final class Clear implements Operation {
+
+    @Override
+    public void execute(SQLiteDatabase db) {
+      db.delete(DBHelper.TABLE_NAME, null, null);
+    }
+
+    @Override
+    public void committed(ThumbnailStore thumbnails) {
+      thumbnails.clear();
+    }
+
+  }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.widget.ArrayAdapter;
+import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
+import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shows how many barcodes of each format were scanned each day of the last {@link #DAYS_SHOWN}, or each
+ * hour of today, from the scan counts summary table, and can export all the hourly counts.
+ */
+public final class StatisticsActivity extends ListActivity {
+
+  private static final String TAG = StatisticsActivity.class.getSimpleName();
+
+  private static final int DAYS_SHOWN = 30;
+
+  private HistoryManager historyManager;
+  private AsyncTaskExecInterface taskExec;
+  private ArrayAdapter<String> adapter;
+  private boolean showHours;
+
+  @Override
+  protected void onCreate(Bundle icicle) {
+    super.onCreate(icicle);
+    historyManager = new HistoryManager(this);
+    taskExec = new AsyncTaskExecManager().build();
+    adapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, new ArrayList<String>());
+    setListAdapter(adapter);
+  }
+
+  @Override
+  protected void onResume() {
+    super.onResume();
+    taskExec.execute(new LoadStatisticsAsyncTask());
+  }
+
+  @Override
+  public boolean onCreateOptionsMenu(Menu menu) {
+    MenuInflater menuInflater = getMenuInflater();
+    menuInflater.inflate(R.menu.statistics, menu);
+    return super.onCreateOptionsMenu(menu);
+  }
+
+  @Override
+  public boolean onPrepareOptionsMenu(Menu menu) {
+    menu.findItem(R.id.menu_statistics_hours).setTitle(
+        showHours ? R.string.statistics_by_day : R.string.statistics_today_by_hour);
+    return super.onPrepareOptionsMenu(menu);
+  }
+
+  @Override
+  public boolean onOptionsItemSelected(MenuItem item) {
+    switch (item.getItemId()) {
+      case R.id.menu_statistics_send:
+        taskExec.execute(new ExportStatisticsAsyncTask());
+        break;
+      case R.id.menu_statistics_hours:
+        showHours = !showHours;
+        taskExec.execute(new LoadStatisticsAsyncTask());
+        break;
+      default:
+        return super.onOptionsItemSelected(item);
+    }
+    return true;
+  }
+
+  /**
+   * @return start of the local day {@code daysAgo} days before today, in milliseconds since the epoch
+   */
+  private static long startOfDay(int daysAgo) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    calendar.add(Calendar.DAY_OF_MONTH, -daysAgo);
+    return calendar.getTimeInMillis();
+  }
+
+  private final class LoadStatisticsAsyncTask extends AsyncTask<Object,Object,List<String>> {
+
+    private final boolean hours;
+
+    LoadStatisticsAsyncTask() {
+      hours = showHours;
+    }
+
+    @Override
+    protected List<String> doInBackground(Object... args) {
+      DateFormat dateFormat;
+      Cursor cursor;
+      if (hours) {
+        dateFormat = DateFormat.getTimeInstance(DateFormat.SHORT);
+        cursor = historyManager.openScanCounts(startOfDay(0));
+      } else {
+        dateFormat = DateFormat.getDateInstance(DateFormat.MEDIUM);
+        cursor = historyManager.openDailyScanCounts(startOfDay(DAYS_SHOWN - 1));
+      }
+      List<String> lines = new ArrayList<String>(cursor.getCount());
+      try {
+        while (cursor.moveToNext()) {
+          String when = dateFormat.format(new Date(cursor.getLong(0)));
+          String key = getString(R.string.statistics_day_format, when, cursor.getString(1));
+          lines.add(getString(R.string.statistics_count, key, cursor.getInt(2)));
+        }
+      } finally {
+        cursor.close();
+      }
+      return lines;
+    }
+
+    @Override
+    protected void onPostExecute(List<String> lines) {
+      adapter.clear();
+      if (lines.isEmpty()) {
+        adapter.add(getString(R.string.history_empty_detail));
+      }
+      for (String line : lines) {
+        adapter.add(line);
+      }
+    }
+
+  }
+
+  /**
+   * Writes the hourly counts as CSV: start of the hour in milliseconds, the same formatted, format,
+   * and number of scans.
+   */
+  private final class ExportStatisticsAsyncTask extends AsyncTask<Object,Object,Uri> {
+
+    @Override
+    protected Uri doInBackground(Object... args) {
+      File statsFile = HistoryManager.buildHistoryFile("statistics", "csv");
+      if (statsFile == null) {
+        return null;
+      }
+      DateFormat hourFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+      Cursor cursor = historyManager.openScanCounts();
+      Writer out = null;
+      try {
+        out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(statsFile), Charset.forName("UTF-8")));
+        while (cursor.moveToNext()) {
+          long hour = cursor.getLong(0);
+          out.write('"' + Long.toString(hour) + "\",");
+          out.write('"' + hourFormat.format(new Date(hour)) + "\",");
+          out.write('"' + cursor.getString(1) + "\",");
+          out.write('"' + Integer.toString(cursor.getInt(2)) + "\"\r\n");
+        }
+        return Uri.parse("file://" + statsFile.getAbsolutePath());
+      } catch (IOException ioe) {
+        Log.w(TAG, "Couldn't access file " + statsFile + " due to " + ioe);
+        return null;
+      } finally {
+        cursor.close();
+        if (out != null) {
+          try {
+            out.close();
+          } catch (IOException ioe) {
+            // do nothing
+          }
+        }
+      }
+    }
+
+    @Override
+    protected void onPostExecute(Uri statsFile) {
+      if (statsFile == null) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(StatisticsActivity.this);
+        builder.setMessage(R.string.msg_unmount_usb);
+        builder.setPositiveButton(R.string.button_ok, null);
+        builder.show();
+      } else {
+        Intent intent = new Intent(Intent.ACTION_SEND, Uri.parse("mailto:"));
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
+        String subject = getString(R.string.statistics_email_title);
+        intent.putExtra(Intent.EXTRA_SUBJECT, subject);
+        intent.putExtra(Intent.EXTRA_TEXT, subject);
+        intent.putExtra(Intent.EXTRA_STREAM, statsFile);
+        intent.setType("text/csv");
+        try {
+          startActivity(intent);
+        } catch (ActivityNotFoundException anfe) {
+          Log.w(TAG, anfe.toString());
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Stores the thumbnail of each scan, keyed by its history row ID. Thumbnails are kept as JPEG files in a
+ * directory bounded to {@link #MAX_DISK_BYTES}, evicting the least recently used; last use is recorded in
+ * each file's modification time, so it survives restarts. Thumbnails scaled down for the history list are
+ * also kept in memory, up to {@link #MAX_MEMORY_BYTES}.</p>
+ *
+ * <p>{@link #getCached(long, int)} only consults memory and may be called from any thread. The other
+ * methods touch the disk and should be called off the main thread.</p>
+ */
+final class ThumbnailStore {
+
+  private static final String TAG = ThumbnailStore.class.getSimpleName();
+
+  private static final String DIR_NAME = "history_thumbnails";
+  private static final String SUFFIX = ".jpg";
+  private static final long MAX_DISK_BYTES = 8L * 1024L * 1024L;
+  private static final int MAX_MEMORY_BYTES = 2 * 1024 * 1024;
+  private static final int JPEG_QUALITY = 50;
+
+  private static ThumbnailStore instance;
+
+  private final File dir;
+  // Both in least- to most-recently used order
+  private final Map<Long,Long> diskSizes; // guarded by this
+  private final Map<Long,Bitmap> memory; // guarded by itself
+  private long diskBytes; // guarded by this
+  private boolean indexed; // guarded by this
+  private int memoryBytes; // guarded by memory
+
+  private ThumbnailStore(File dir) {
+    this.dir = dir;
+    diskSizes = new LinkedHashMap<Long,Long>(16, 0.75f, true);
+    memory = new LinkedHashMap<Long,Bitmap>(16, 0.75f, true);
+  }
+
+  static synchronized ThumbnailStore getInstance(Context context) {
+    if (instance == null) {
+      instance = new ThumbnailStore(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+    }
+    return instance;
+  }
+
+  /**
+   * @return thumbnail for the history item scaled to {@code size} pixels square if it's in memory,
+   *  else {@code null}
+   */
+  Bitmap getCached(long id, int size) {
+    synchronized (memory) {
+      Bitmap bitmap = memory.get(id);
+      return bitmap == null || bitmap.getWidth() != size ? null : bitmap;
+    }
+  }
+
+  /**
+   * @return thumbnail for the history item at full size, or {@code null} if there is none
+   */
+  Bitmap load(long id) {
+    File file = touch(id);
+    return file == null ? null : BitmapFactory.decodeFile(file.getAbsolutePath());
+  }
+
+  /**
+   * @return thumbnail for the history item scaled to {@code size} pixels square, from memory or else disk,
+   *  or {@code null} if there is none
+   */
+  Bitmap loadScaled(long id, int size) {
+    Bitmap bitmap = getCached(id, size);
+    if (bitmap != null) {
+      return bitmap;
+    }
+    File file = touch(id);
+    if (file == null) {
+      return null;
+    }
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    int sampleSize = 1;
+    while (options.outWidth / (sampleSize * 2) >= size && options.outHeight / (sampleSize * 2) >= size) {
+      sampleSize *= 2;
+    }
+    options = new BitmapFactory.Options();
+    options.inSampleSize = sampleSize;
+    Bitmap sampled = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    if (sampled == null) {
+      return null;
+    }
+    bitmap = Bitmap.createScaledBitmap(sampled, size, size, true);
+    cache(id, bitmap);
+    return bitmap;
+  }
+
+  /**
+   * Saves a thumbnail for a history item, replacing any it had.
+   */
+  void put(long id, Bitmap bitmap) {
+    File file = fileFor(id);
+    synchronized (this) {
+      index();
+      if (!dir.exists() && !dir.mkdirs()) {
+        Log.w(TAG, "Couldn't make dir " + dir);
+        return;
+      }
+      OutputStream out = null;
+      try {
+        out = new BufferedOutputStream(new FileOutputStream(file));
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+      } catch (IOException ioe) {
+        Log.w(TAG, "Couldn't write " + file + " due to " + ioe);
+        return;
+      } finally {
+        if (out != null) {
+          try {
+            out.close();
+          } catch (IOException ioe) {
+            // do nothing
+          }
+        }
+      }
+      Long oldSize = diskSizes.put(id, file.length());
+      diskBytes += file.length() - (oldSize == null ? 0L : oldSize);
+      trimDisk();
+    }
+    synchronized (memory) {
+      Bitmap old = memory.remove(id);
+      if (old != null) {
+        memoryBytes -= sizeOf(old);
+      }
+    }
+  }
+
+  synchronized void remove(long id) {
+    synchronized (memory) {
+      Bitmap bitmap = memory.remove(id);
+      if (bitmap != null) {
+        memoryBytes -= sizeOf(bitmap);
+      }
+    }
+    index();
+    Long size = diskSizes.remove(id);
+    if (size != null) {
+      diskBytes -= size;
+      File file = fileFor(id);
+      if (!file.delete()) {
+        Log.w(TAG, "Couldn't delete " + file);
+      }
+    }
+  }
+
+  synchronized void clear() {
+    synchronized (memory) {
+      memory.clear();
+      memoryBytes = 0;
+    }
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!file.delete()) {
+          Log.w(TAG, "Couldn't delete " + file);
+        }
+      }
+    }
+    diskSizes.clear();
+    diskBytes = 0L;
+    indexed = true;
+  }
+
+  /**
+   * Marks the thumbnail as most recently used.
+   *
+   * @return its file, or {@code null} if there is none
+   */
+  private synchronized File touch(long id) {
+    index();
+    if (diskSizes.get(id) == null) {
+      return null;
+    }
+    File file = fileFor(id);
+    if (!file.setLastModified(System.currentTimeMillis())) {
+      Log.w(TAG, "Couldn't touch " + file);
+    }
+    return file;
+  }
+
+  private File fileFor(long id) {
+    return new File(dir, id + SUFFIX);
+  }
+
+  private void cache(long id, Bitmap bitmap) {
+    synchronized (memory) {
+      Bitmap old = memory.put(id, bitmap);
+      memoryBytes += sizeOf(bitmap) - (old == null ? 0 : sizeOf(old));
+      Iterator<Bitmap> eldest = memory.values().iterator();
+      while (memoryBytes > MAX_MEMORY_BYTES && eldest.hasNext()) {
+        memoryBytes -= sizeOf(eldest.next());
+        eldest.remove();
+      }
+    }
+  }
+
+  // Called holding this
+  private void index() {
+    if (indexed) {
+      return;
+    }
+    indexed = true;
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long aModified = a.lastModified();
+        long bModified = b.lastModified();
+        return aModified < bModified ? -1 : aModified > bModified ? 1 : 0;
+      }
+    });
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(SUFFIX)) {
+        try {
+          long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+          diskSizes.put(id, file.length());
+          diskBytes += file.length();
+        } catch (NumberFormatException nfe) {
+          Log.w(TAG, "Unexpected file " + file);
+        }
+      }
+    }
+    trimDisk();
+  }
+
+  // Called holding this
+  private void trimDisk() {
+    Iterator<Map.Entry<Long,Long>> eldest = diskSizes.entrySet().iterator();
+    while (diskBytes > MAX_DISK_BYTES && eldest.hasNext()) {
+      Map.Entry<Long,Long> entry = eldest.next();
+      diskBytes -= entry.getValue();
+      eldest.remove();
+      File file = fileFor(entry.getKey());
+      if (!file.delete()) {
+        Log.w(TAG, "Couldn't delete " + file);
+      }
+    }
+  }
+
+  private static int sizeOf(Bitmap bitmap) {
+    return bitmap.getRowBytes() * bitmap.getHeight();
+  }
+
+}
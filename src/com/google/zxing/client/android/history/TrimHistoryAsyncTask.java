@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.history;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the history retention limits asynchronously: keeps at most a given number of the most recent
+ * scans, and optionally drops scans older than a given age. Each limit is one set-based {@code DELETE},
+ * and both run in a single transaction. The thumbnails of deleted scans are removed once it commits.
+ * How many scans were deleted, and how long it took, is reported in the log only.
+ */
+final class TrimHistoryAsyncTask extends AsyncTask<Object,Object,Integer> {
+
+  private static final String TAG = TrimHistoryAsyncTask.class.getSimpleName();
+
+  // LIMIT -1 means no limit, so this selects every row after the first maxItems
+  private static final String BEYOND_MAX_ITEMS_SELECTION =
+      DBHelper.ID_COL + " IN (SELECT " + DBHelper.ID_COL + " FROM " + DBHelper.TABLE_NAME +
+      " ORDER BY " + DBHelper.TIMESTAMP_COL + " DESC LIMIT -1 OFFSET ?)";
+  private static final String OLDER_THAN_SELECTION = DBHelper.TIMESTAMP_COL + "<?";
+
+  private final SQLiteOpenHelper helper;
+  private final ThumbnailStore thumbnails;
+  private final int maxItems;
+  private final long maxAgeMS;
+
+  /**
+   * @param helper history database
+   * @param thumbnails thumbnails of history rows
+   * @param maxItems number of most recent scans to keep
+   * @param maxAgeMS age beyond which scans are deleted, or 0 to keep scans regardless of age
+   */
+  TrimHistoryAsyncTask(SQLiteOpenHelper helper, ThumbnailStore thumbnails, int maxItems, long maxAgeMS) {
+    this.helper = helper;
+    this.thumbnails = thumbnails;
+    this.maxItems = maxItems;
+    this.maxAgeMS = maxAgeMS;
+  }
+
+  @Override
+  protected Integer doInBackground(Object... args) {
+    long start = SystemClock.elapsedRealtime();
+    List<long[]> deletedIDs = new ArrayList<long[]>(2);
+    int deleted = 0;
+    try {
+      SQLiteDatabase db = helper.getWritableDatabase();
+      db.beginTransaction();
+      try {
+        if (maxAgeMS > 0L) {
+          String[] cutoff = { Long.toString(System.currentTimeMillis() - maxAgeMS) };
+          deletedIDs.add(DBHelper.selectIDs(db, OLDER_THAN_SELECTION, cutoff));
+          deleted += db.delete(DBHelper.TABLE_NAME, OLDER_THAN_SELECTION, cutoff);
+        }
+        String[] maxItemsArgs = { Integer.toString(maxItems) };
+        deletedIDs.add(DBHelper.selectIDs(db, BEYOND_MAX_ITEMS_SELECTION, maxItemsArgs));
+        deleted += db.delete(DBHelper.TABLE_NAME, BEYOND_MAX_ITEMS_SELECTION, maxItemsArgs);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    } catch (SQLiteException sqle) {
+      // We're seeing an error here when called in CaptureActivity.onCreate() in rare cases
+      // and don't understand it. First theory is that it's transient so can be safely ignored.
+      Log.w(TAG, sqle);
+      return 0;
+    }
+    for (long[] ids : deletedIDs) {
+      for (long id : ids) {
+        thumbnails.remove(id);
+      }
+    }
+    Log.i(TAG, "Trimmed " + deleted + " scans from history in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    return deleted;
+  }
+
+}
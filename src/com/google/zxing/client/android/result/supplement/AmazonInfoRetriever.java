@@ -17,7 +17,7 @@
 package com.google.zxing.client.android.result.supplement;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Locale;
@@ -55,12 +55,19 @@ final class AmazonInfoRetriever extends SupplementalInfoRetriever {
     this.country = country;
   }
 
+  @Override
+  String getCacheKey() {
+    return country + ':' + type + ':' + productID;
+  }
+
   @Override
   void retrieveSupplementalInfo() throws IOException {
 
-    CharSequence contents =  
-        HttpHelper.downloadViaHttp("https://bsplus.srowen.com/ss?c=" + country + "&t=" + type + "&i=" + productID,
-                                   HttpHelper.ContentType.XML);
+    // Parsed as it arrives; closing it after the first Item drops the rest of the response
+    Reader contents =
+        HttpHelper.openReader("https://bsplus.srowen.com/ss?c=" + country + "&t=" + type + "&i=" + productID,
+                              HttpHelper.ContentType.XML,
+                              getCancellationToken());
 
     String detailPageURL = null;
     Collection<String> authors = new ArrayList<String>();
@@ -121,6 +128,8 @@ final class AmazonInfoRetriever extends SupplementalInfoRetriever {
 
     } catch (XmlPullParserException xppe) {
       throw new IOException(xppe.toString());
+    } finally {
+      contents.close();
     }
     
     if (error || detailPageURL == null) {
@@ -145,11 +154,11 @@ final class AmazonInfoRetriever extends SupplementalInfoRetriever {
     }
   }
   
-  private static XmlPullParser buildParser(CharSequence contents) throws XmlPullParserException {
+  private static XmlPullParser buildParser(Reader contents) throws XmlPullParserException {
     XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
     factory.setNamespaceAware(true);
     XmlPullParser xpp = factory.newPullParser();
-    xpp.setInput(new StringReader(contents.toString()));
+    xpp.setInput(contents);
     return xpp;
   }
 
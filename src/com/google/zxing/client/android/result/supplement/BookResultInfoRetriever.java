@@ -17,6 +17,7 @@
 package com.google.zxing.client.android.result.supplement;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -25,10 +26,10 @@ import android.widget.TextView;
 import com.google.zxing.client.android.HttpHelper;
 import com.google.zxing.client.android.LocaleManager;
 import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.common.StreamingJSONParser;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import com.google.zxing.client.android.history.HistoryManager;
 
@@ -50,14 +51,17 @@ final class BookResultInfoRetriever extends SupplementalInfoRetriever {
   }
 
   @Override
-  void retrieveSupplementalInfo() throws IOException {
+  String getCacheKey() {
+    return LocaleManager.getBookSearchCountryTLD(context) + ':' + isbn;
+  }
 
-    CharSequence contents = HttpHelper.downloadViaHttp("https://www.googleapis.com/books/v1/volumes?q=isbn:" + isbn,
-                                                       HttpHelper.ContentType.JSON);
+  @Override
+  void retrieveSupplementalInfo() throws IOException {
 
-    if (contents.length() == 0) {
-      return;
-    }
+    // Only the first volume is used, so don't ask for more
+    Reader in = HttpHelper.openReader("https://www.googleapis.com/books/v1/volumes?maxResults=1&q=isbn:" + isbn,
+                                      HttpHelper.ContentType.JSON,
+                                      getCancellationToken());
 
     String title;
     String pages;
@@ -65,7 +69,16 @@ final class BookResultInfoRetriever extends SupplementalInfoRetriever {
 
     try {
 
-      JSONObject topLevel = (JSONObject) new JSONTokener(contents.toString()).nextValue();
+      Object value;
+      try {
+        value = StreamingJSONParser.parse(in);
+      } finally {
+        in.close();
+      }
+      if (!(value instanceof JSONObject)) {
+        return;
+      }
+      JSONObject topLevel = (JSONObject) value;
       JSONArray items = topLevel.optJSONArray("items");
       if (items == null || items.isNull(0)) {
         return;
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.result.supplement;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Scans HTML as it arrives for a wanted element or pattern, so that the caller can stop reading, and
+ * close the connection, as soon as it's found.</p>
+ *
+ * <p>The charset is determined as a browser would: from a byte order mark, else the charset declared by
+ * the server, else a {@code <meta>} charset declaration in the first {@link #PRESCAN_BYTES} bytes,
+ * else UTF-8.</p>
+ */
+final class HtmlScanner {
+
+  private static final int PRESCAN_BYTES = 1024;
+  private static final int BUFFER_SIZE = 4096;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+  private static final Pattern META_CHARSET_PATTERN =
+      Pattern.compile("<meta[^>]+charset\\s*=\\s*[\"']?([-\\w.:]+)", Pattern.CASE_INSENSITIVE);
+
+  private final Reader in;
+  private final char[] buffer;
+  private int bufferPos;
+  private int bufferLimit;
+  private int charsRead;
+
+  /**
+   * @param in HTML bytes
+   * @param declaredCharset charset declared by the server, or {@code null}
+   */
+  HtmlScanner(InputStream in, Charset declaredCharset) throws IOException {
+    BufferedInputStream bufferedIn = new BufferedInputStream(in, BUFFER_SIZE);
+    Charset charset = detectCharset(bufferedIn, declaredCharset);
+    this.in = new InputStreamReader(bufferedIn, charset);
+    buffer = new char[BUFFER_SIZE];
+  }
+
+  /**
+   * @param elementName name of the element, like "title"
+   * @param maxChars how much of the document to read before giving up
+   * @return text up to the first tag inside the first such element, trimmed, or {@code null} if it's not
+   *  found within {@code maxChars} characters
+   */
+  String findElementText(String elementName, int maxChars) throws IOException {
+    StringBuilder tagName = new StringBuilder();
+    int c;
+    while ((c = next(maxChars)) >= 0) {
+      if (c != '<') {
+        continue;
+      }
+      tagName.setLength(0);
+      while ((c = next(maxChars)) >= 0 && Character.isLetterOrDigit(c)) {
+        tagName.append((char) c);
+      }
+      if (c < 0) {
+        return null;
+      }
+      if (!elementName.equalsIgnoreCase(tagName.toString()) || !(c == '>' || Character.isWhitespace(c))) {
+        continue;
+      }
+      // Skip any attributes
+      while (c != '>') {
+        if ((c = next(maxChars)) < 0) {
+          return null;
+        }
+      }
+      StringBuilder text = new StringBuilder();
+      while ((c = next(maxChars)) >= 0 && c != '<') {
+        text.append((char) c);
+      }
+      return c < 0 ? null : text.toString().trim();
+    }
+    return null;
+  }
+
+  /**
+   * @param patterns patterns to look for, in order of preference at any point of the document
+   * @param maxChars how much of the document to read before giving up
+   * @return match of the first pattern found, once no more input could change it, or {@code null}
+   *  if none is found within {@code maxChars} characters
+   */
+  Matcher find(Pattern[] patterns, int maxChars) throws IOException {
+    StringBuilder text = new StringBuilder();
+    Matcher[] matchers = new Matcher[patterns.length];
+    // Per pattern, where a match could still start; everything before it has failed no matter what follows
+    int[] searchStarts = new int[patterns.length];
+    for (int i = 0; i < patterns.length; i++) {
+      matchers[i] = patterns[i].matcher(text);
+      matchers[i].useTransparentBounds(true);
+      matchers[i].useAnchoringBounds(false);
+    }
+    boolean ended = false;
+    while (!ended) {
+      int c = next(maxChars);
+      if (c < 0) {
+        ended = true;
+      } else {
+        text.append((char) c);
+        // Take the rest of what's buffered in one go
+        int available = Math.min(bufferLimit - bufferPos, maxChars - charsRead);
+        text.append(buffer, bufferPos, available);
+        bufferPos += available;
+        charsRead += available;
+      }
+      for (int i = 0; i < matchers.length; i++) {
+        if (search(matchers[i], searchStarts, i, text.length(), ended)) {
+          return matchers[i];
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Looks for a match from {@code searchStarts[index]}, and moves that past any start that has failed
+   * without reaching the end of the text, so that those aren't tried again after more is read.
+   *
+   * @return true if the matcher holds a match that no more input could change
+   */
+  private static boolean search(Matcher matcher, int[] searchStarts, int index, int length, boolean ended) {
+    int start = searchStarts[index];
+    matcher.region(start, length);
+    boolean found = matcher.find();
+    if (found && (ended || !matcher.hitEnd())) {
+      return true;
+    }
+    if (!found && !matcher.hitEnd()) {
+      // Every start failed before the end, so none can succeed later
+      searchStarts[index] = length;
+      return false;
+    }
+    // Some start reached the end; skip the ones before it, which failed early
+    int stop = found ? matcher.start() : length;
+    while (start < stop) {
+      matcher.region(start, length);
+      if (matcher.lookingAt() || matcher.hitEnd()) {
+        break;
+      }
+      start++;
+    }
+    searchStarts[index] = start;
+    return false;
+  }
+
+  /**
+   * @return next character, or -1 at the end of input or after {@code maxChars} characters
+   */
+  private int next(int maxChars) throws IOException {
+    if (charsRead >= maxChars) {
+      return -1;
+    }
+    if (bufferPos == bufferLimit) {
+      int read = in.read(buffer);
+      if (read <= 0) {
+        return -1;
+      }
+      bufferPos = 0;
+      bufferLimit = read;
+    }
+    charsRead++;
+    return buffer[bufferPos++];
+  }
+
+  private static Charset detectCharset(BufferedInputStream in, Charset declaredCharset) throws IOException {
+    in.mark(PRESCAN_BYTES);
+    byte[] start = new byte[PRESCAN_BYTES];
+    int length = 0;
+    int read;
+    while (length < start.length && (read = in.read(start, length, start.length - length)) > 0) {
+      length += read;
+    }
+    in.reset();
+
+    if (length >= 3 && (start[0] & 0xFF) == 0xEF && (start[1] & 0xFF) == 0xBB && (start[2] & 0xFF) == 0xBF) {
+      return UTF8;
+    }
+    if (length >= 2 && (start[0] & 0xFF) == 0xFE && (start[1] & 0xFF) == 0xFF) {
+      return Charset.forName("UTF-16BE");
+    }
+    if (length >= 2 && (start[0] & 0xFF) == 0xFF && (start[1] & 0xFF) == 0xFE) {
+      return Charset.forName("UTF-16LE");
+    }
+    if (declaredCharset != null) {
+      return declaredCharset;
+    }
+    // Declarations are ASCII, which decodes the same in any ASCII-compatible charset
+    Matcher matcher = META_CHARSET_PATTERN.matcher(new String(start, 0, length, ISO_8859_1));
+    if (matcher.find()) {
+      try {
+        if (Charset.isSupported(matcher.group(1))) {
+          return Charset.forName(matcher.group(1));
+        }
+      } catch (IllegalCharsetNameException icne) {
+        // fall through
+      }
+    }
+    return UTF8;
+  }
+
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.result.supplement;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+import com.google.zxing.client.android.common.CSVLineParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Looks up products by GTIN (UPC, EAN or ISBN) in a catalog kept on the device, without the network.</p>
+ *
+ * <p>The catalog is imported from CSV files of {@code GTIN,name,price,SKU} rows placed in
+ * {@code BarcodeScanner/Catalog} on external storage. {@link #FULL_IMPORT_NAME} replaces the whole catalog
+ * whenever it changes. Files named {@link #DELTA_PREFIX}{@code *.csv} are merged into it, in name order, then
+ * renamed to end in {@link #IMPORTED_SUFFIX}; a delta row with nothing but a GTIN removes that product.
+ * Files still being copied are left until they settle, and anything not imported is retried on a later
+ * lookup.</p>
+ *
+ * <p>Imports are compiled into an index file of fixed-width records sorted by GTIN, followed by the products'
+ * text, which is memory-mapped and binary searched. So a lookup, even the first after launch, reads only
+ * the few pages it touches instead of loading the catalog. Imports run in the background; lookups meanwhile
+ * see the catalog as it was.</p>
+ */
+final class OfflineCatalog {
+
+  private static final String TAG = OfflineCatalog.class.getSimpleName();
+
+  private static final String INDEX_FILE_NAME = "catalog.idx";
+  private static final String IMPORT_DIR_NAME = "Catalog";
+  private static final String FULL_IMPORT_NAME = "products.csv";
+  private static final String DELTA_PREFIX = "products-delta";
+  private static final String IMPORTED_SUFFIX = ".imported";
+  // Files modified more recently than this may still be being copied
+  private static final long SETTLE_MS = 5000L;
+
+  private static final int MAGIC = 0x5A584349;
+  private static final int FORMAT_VERSION = 1;
+  // Magic, version, record count
+  private static final int HEADER_SIZE = 12;
+  // GTIN, then offset of the product's text from the end of the records
+  private static final int RECORD_SIZE = 12;
+  private static final int MAX_FIELD_LENGTH = 1000;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final Executor IMPORTER = Executors.newSingleThreadExecutor();
+
+  private static OfflineCatalog instance;
+
+  private final File indexFile;
+  private final File importDir;
+  private volatile Index index;
+  private boolean opened; // guarded by this
+  private boolean importing; // guarded by this
+  private long importDirLastModified; // guarded by this
+
+  private OfflineCatalog(File indexFile, File importDir) {
+    this.indexFile = indexFile;
+    this.importDir = importDir;
+  }
+
+  static synchronized OfflineCatalog getInstance(Context context) {
+    if (instance == null) {
+      File bsRoot = new File(Environment.getExternalStorageDirectory(), "BarcodeScanner");
+      instance = new OfflineCatalog(new File(context.getApplicationContext().getFilesDir(), INDEX_FILE_NAME),
+                                    new File(bsRoot, IMPORT_DIR_NAME));
+    }
+    return instance;
+  }
+
+  /**
+   * @param productID UPC, EAN or ISBN
+   * @return product with that GTIN, or {@code null} if the catalog has none
+   */
+  Product lookup(String productID) {
+    long gtin = parseGTIN(productID);
+    if (gtin < 0L) {
+      return null;
+    }
+    Index current;
+    synchronized (this) {
+      if (!opened) {
+        opened = true;
+        index = open();
+      }
+      maybeImport();
+      current = index;
+    }
+    return current == null ? null : current.find(gtin);
+  }
+
+  // Called holding this
+  private Index open() {
+    if (!indexFile.exists()) {
+      return null;
+    }
+    try {
+      return Index.map(indexFile);
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't open " + indexFile, ioe);
+      return null;
+    }
+  }
+
+  // Called holding this
+  private void maybeImport() {
+    if (importing) {
+      return;
+    }
+    final File fullImport = new File(importDir, FULL_IMPORT_NAME);
+    final boolean full = fullImport.lastModified() > indexFile.lastModified();
+    // Adding or renaming a delta changes the directory, so it need only be listed when that happens
+    final long dirLastModified = importDir.lastModified();
+    if (!full && dirLastModified == importDirLastModified) {
+      return;
+    }
+    final File[] deltas = importDir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(DELTA_PREFIX) && name.endsWith(".csv");
+      }
+    });
+    if (!full && (deltas == null || deltas.length == 0)) {
+      importDirLastModified = dirLastModified;
+      return;
+    }
+    importing = true;
+    IMPORTER.execute(new Runnable() {
+      @Override
+      public void run() {
+        boolean imported = false;
+        try {
+          imported = importAll(full ? fullImport : null, deltas);
+        } finally {
+          synchronized (OfflineCatalog.this) {
+            importing = false;
+            // Otherwise the directory is listed again on the next lookup, to retry what's left
+            if (imported) {
+              importDirLastModified = dirLastModified;
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @param fullImport full import to do first, or {@code null}
+   * @return true if everything was imported
+   */
+  private boolean importAll(File fullImport, File[] deltas) {
+    if (fullImport != null && !importFile(fullImport, true)) {
+      return false;
+    }
+    if (deltas != null) {
+      Arrays.sort(deltas);
+      for (File delta : deltas) {
+        // Later deltas may overwrite this one's rows, so they wait for it
+        if (!importFile(delta, false)) {
+          return false;
+        }
+        if (!delta.renameTo(new File(delta.getPath() + IMPORTED_SUFFIX))) {
+          Log.w(TAG, "Couldn't rename " + delta);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Merges the rows of a CSV file into the index, or replaces the index with them. A file that may still be
+   * being copied, as it was modified in the last {@link #SETTLE_MS} or changes while it's read, is left.
+   *
+   * @return true if imported
+   */
+  private boolean importFile(File csvFile, boolean replace) {
+    long lastModified = csvFile.lastModified();
+    long length = csvFile.length();
+    if (System.currentTimeMillis() - lastModified < SETTLE_MS) {
+      Log.i(TAG, "Not importing " + csvFile + " yet, as it was just modified");
+      return false;
+    }
+    // Only the rows being imported are held in memory; existing products are streamed from the old index
+    SortedMap<Long,Product> changes;
+    try {
+      changes = readCSV(csvFile);
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't read " + csvFile, ioe);
+      return false;
+    }
+    if (csvFile.lastModified() != lastModified || csvFile.length() != length) {
+      Log.i(TAG, "Not importing " + csvFile + " yet, as it changed while being read");
+      return false;
+    }
+    Index base = replace ? null : index;
+    Index merged;
+    try {
+      merged = write(base, changes);
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't write " + indexFile, ioe);
+      return false;
+    }
+    index = merged;
+    Log.i(TAG, "Imported " + changes.size() + " rows from " + csvFile + "; catalog has " + merged.count);
+    return true;
+  }
+
+  private static SortedMap<Long,Product> readCSV(File csvFile) throws IOException {
+    SortedMap<Long,Product> rows = new TreeMap<Long,Product>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), UTF8), 8192);
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        List<String> fields = CSVLineParser.parse(line);
+        // Also skips a header row
+        long gtin = parseGTIN(fields.get(0));
+        if (gtin < 0L) {
+          continue;
+        }
+        String name = field(fields, 1);
+        if (name.isEmpty()) {
+          rows.put(gtin, null);
+        } else {
+          rows.put(gtin, new Product(name, field(fields, 2), field(fields, 3)));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return rows;
+  }
+
+  private static String field(List<String> fields, int i) {
+    if (i >= fields.size()) {
+      return "";
+    }
+    String field = fields.get(i).trim();
+    return field.length() > MAX_FIELD_LENGTH ? field.substring(0, MAX_FIELD_LENGTH) : field;
+  }
+
+  /**
+   * Writes a new index of the products in {@code base}, if any, updated with {@code changes}, and maps it.
+   * Both are already sorted by GTIN, so they're merged in one pass.
+   */
+  private Index write(Index base, SortedMap<Long,Product> changes) throws IOException {
+    File recordsFile = new File(indexFile.getPath() + ".records");
+    File textFile = new File(indexFile.getPath() + ".text");
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    try {
+      int count = 0;
+      DataOutputStream records =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordsFile), 8192));
+      try {
+        DataOutputStream text =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(textFile), 8192));
+        try {
+          int baseCount = base == null ? 0 : base.count;
+          int i = 0;
+          Iterator<Map.Entry<Long,Product>> changesIt = changes.entrySet().iterator();
+          Map.Entry<Long,Product> change = changesIt.hasNext() ? changesIt.next() : null;
+          while (i < baseCount || change != null) {
+            long baseGTIN = i < baseCount ? base.gtinAt(i) : Long.MAX_VALUE;
+            long gtin;
+            Product product;
+            if (change != null && change.getKey() <= baseGTIN) {
+              gtin = change.getKey();
+              product = change.getValue();
+              if (gtin == baseGTIN) {
+                i++;
+              }
+              change = changesIt.hasNext() ? changesIt.next() : null;
+            } else {
+              gtin = baseGTIN;
+              product = base.productAt(i);
+              i++;
+            }
+            if (product != null) {
+              records.writeLong(gtin);
+              records.writeInt(text.size());
+              writeText(text, product.getName());
+              writeText(text, product.getPrice());
+              writeText(text, product.getSKU());
+              count++;
+            }
+          }
+        } finally {
+          text.close();
+        }
+      } finally {
+        records.close();
+      }
+
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(count);
+        copy(recordsFile, out);
+        copy(textFile, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      recordsFile.delete();
+      textFile.delete();
+    }
+    // Replaced in one step, so that a crash while writing leaves the old index intact
+    if (!tempFile.renameTo(indexFile)) {
+      tempFile.delete();
+      throw new IOException("Couldn't replace " + indexFile);
+    }
+    return Index.map(indexFile);
+  }
+
+  private static void writeText(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF8);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void copy(File file, OutputStream out) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return GTIN as a number, so that the same code with or without leading zeroes matches, or -1 if invalid
+   */
+  private static long parseGTIN(String value) {
+    String trimmed = value.trim();
+    int length = trimmed.length();
+    if (length < 8 || length > 14) {
+      return -1L;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = trimmed.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1L;
+      }
+    }
+    return Long.parseLong(trimmed);
+  }
+
+  /**
+   * A mapped index file. Only absolute reads are made of {@link #buffer}, so it may be shared by threads.
+   */
+  private static final class Index {
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int textStart;
+
+    private Index(ByteBuffer buffer, int count) {
+      this.buffer = buffer;
+      this.count = count;
+      textStart = HEADER_SIZE + count * RECORD_SIZE;
+    }
+
+    static Index map(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        // The mapping stays valid after the file is closed
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+          throw new IOException("Not a catalog index: " + file);
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > buffer.limit()) {
+          throw new IOException("Truncated catalog index: " + file);
+        }
+        return new Index(buffer, count);
+      } finally {
+        raf.close();
+      }
+    }
+
+    long gtinAt(int i) {
+      return buffer.getLong(HEADER_SIZE + i * RECORD_SIZE);
+    }
+
+    Product find(long gtin) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        long midGTIN = gtinAt(mid);
+        if (midGTIN < gtin) {
+          low = mid + 1;
+        } else if (midGTIN > gtin) {
+          high = mid - 1;
+        } else {
+          return productAt(mid);
+        }
+      }
+      return null;
+    }
+
+    Product productAt(int i) {
+      int offset = textStart + buffer.getInt(HEADER_SIZE + i * RECORD_SIZE + 8);
+      ByteBuffer text = buffer.duplicate();
+      text.position(offset);
+      String name = readText(text);
+      String price = readText(text);
+      String sku = readText(text);
+      return new Product(name, price, sku);
+    }
+
+    private static String readText(ByteBuffer text) {
+      int length = text.getShort() & 0xFFFF;
+      byte[] bytes = new byte[length];
+      text.get(bytes);
+      return new String(bytes, UTF8);
+    }
+
+  }
+
+  static final class Product {
+
+    private final String name;
+    private final String price;
+    private final String sku;
+
+    Product(String name, String price, String sku) {
+      this.name = name;
+      this.price = price;
+      this.sku = sku;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    String getPrice() {
+      return price;
+    }
+
+    String getSKU() {
+      return sku;
+    }
+
+  }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.result.supplement;
+
+import android.content.Context;
+import android.widget.TextView;
+import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.history.HistoryManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Shows what the {@link OfflineCatalog} on the device knows of a product or book.
+ */
+final class OfflineCatalogRetriever extends SupplementalInfoRetriever {
+
+  private final String productID;
+  private final String source;
+  private final OfflineCatalog catalog;
+
+  OfflineCatalogRetriever(TextView textView, String productID, HistoryManager historyManager, Context context) {
+    super(textView, historyManager);
+    this.productID = productID;
+    this.source = context.getString(R.string.msg_offline_catalog);
+    this.catalog = OfflineCatalog.getInstance(context);
+  }
+
+  @Override
+  String getCacheKey() {
+    return productID;
+  }
+
+  @Override
+  boolean isCacheable() {
+    // Looking it up is as fast as the cache, and the catalog may change underneath it
+    return false;
+  }
+
+  @Override
+  void retrieveSupplementalInfo() {
+    OfflineCatalog.Product product = catalog.lookup(productID);
+    if (product == null) {
+      return;
+    }
+    Collection<String> newTexts = new ArrayList<String>();
+    maybeAddText(product.getName(), newTexts);
+    maybeAddText(product.getPrice(), newTexts);
+    maybeAddText(product.getSKU(), newTexts);
+    append(productID, source, newTexts.toArray(new String[newTexts.size()]), null);
+  }
+
+}
@@ -39,9 +39,12 @@ import java.util.regex.Pattern;
  */
 final class ProductResultInfoRetriever extends SupplementalInfoRetriever {
 
+  // The first product is near the top of the results; past this, it's not a results page we understand
+  private static final int MAX_CHARS = 65536;
   private static final Pattern[] PRODUCT_NAME_PRICE_PATTERNS = {
-    Pattern.compile(",event\\)\">([^<]+)</a></h3>.+<span class=psrp>([^<]+)</span>"),
-    Pattern.compile("owb63p\">([^<]+).+zdi3pb\">([^<]+)"),
+    // Reluctant, so that the first product's price matches without reading the rest of the page
+    Pattern.compile(",event\\)\">([^<]+)</a></h3>.+?<span class=psrp>([^<]+)</span>"),
+    Pattern.compile("owb63p\">([^<]+).+?zdi3pb\">([^<]+)"),
   };
 
   private final String productID;
@@ -55,23 +58,30 @@ final class ProductResultInfoRetriever extends SupplementalInfoRetriever {
     this.context = context;
   }
 
+  @Override
+  String getCacheKey() {
+    return LocaleManager.getProductSearchCountryTLD(context) + ':' + productID;
+  }
+
   @Override
   void retrieveSupplementalInfo() throws IOException {
 
     String encodedProductID = URLEncoder.encode(productID, "UTF-8");
     String uri = "http://www.google." + LocaleManager.getProductSearchCountryTLD(context)
             + "/m/products?ie=utf8&oe=utf8&scoring=p&source=zxing&q=" + encodedProductID;
-    CharSequence content = HttpHelper.downloadViaHttp(uri, HttpHelper.ContentType.HTML);
+    HttpHelper.Body body = HttpHelper.openStream(uri, HttpHelper.ContentType.HTML, getCancellationToken());
+    Matcher matcher;
+    try {
+      matcher = new HtmlScanner(body, body.getCharset()).find(PRODUCT_NAME_PRICE_PATTERNS, MAX_CHARS);
+    } finally {
+      body.close();
+    }
 
-    for (Pattern p : PRODUCT_NAME_PRICE_PATTERNS) {
-      Matcher matcher = p.matcher(content);
-      if (matcher.find()) {
-        append(productID,
-               source,
-               new String[] { unescapeHTML(matcher.group(1)), unescapeHTML(matcher.group(2)) },
-               uri);
-        break;
-      }
+    if (matcher != null) {
+      append(productID,
+             source,
+             new String[] { unescapeHTML(matcher.group(1)), unescapeHTML(matcher.group(2)) },
+             uri);
     }
   }
 
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.result.supplement;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers where each short link led, for {@link #TTL_MS}, so that chains of redirects seen before resolve
+ * without a request. Holds up to {@link #MAX_ENTRIES} links, evicting the least recently used, and is
+ * saved to a file so that it persists across launches. A link that led nowhere is remembered as leading to
+ * itself.
+ */
+final class RedirectCache {
+
+  private static final String TAG = RedirectCache.class.getSimpleName();
+
+  private static final String FILE_NAME = "redirects";
+  private static final int FORMAT_VERSION = 1;
+  private static final long TTL_MS = 7L * 24L * 60L * 60L * 1000L;
+  private static final int MAX_ENTRIES = 256;
+
+  private static RedirectCache instance;
+
+  private final File file;
+  // Least- to most-recently used
+  private final Map<URI,Redirect> redirects; // guarded by this
+  private boolean loaded; // guarded by this
+
+  private RedirectCache(File file) {
+    this.file = file;
+    redirects = new LinkedHashMap<URI,Redirect>(16, 0.75f, true);
+  }
+
+  static synchronized RedirectCache getInstance(Context context) {
+    if (instance == null) {
+      instance = new RedirectCache(new File(context.getApplicationContext().getCacheDir(), FILE_NAME));
+    }
+    return instance;
+  }
+
+  /**
+   * @return where the link was last seen to lead, or {@code null} if it's not known or that has expired
+   */
+  synchronized URI get(URI from) {
+    load();
+    Redirect redirect = redirects.get(from);
+    if (redirect == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() - redirect.storedAt > TTL_MS) {
+      redirects.remove(from);
+      return null;
+    }
+    return redirect.to;
+  }
+
+  synchronized void put(URI from, URI to) {
+    load();
+    redirects.put(from, new Redirect(to, System.currentTimeMillis()));
+    Iterator<URI> eldest = redirects.keySet().iterator();
+    while (redirects.size() > MAX_ENTRIES) {
+      eldest.next();
+      eldest.remove();
+    }
+    save();
+  }
+
+  // Called holding this
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!file.exists()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != FORMAT_VERSION) {
+          return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String from = in.readUTF();
+          String to = in.readUTF();
+          long storedAt = in.readLong();
+          if (now - storedAt <= TTL_MS) {
+            redirects.put(new URI(from), new Redirect(new URI(to), storedAt));
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (EOFException eofe) {
+      Log.w(TAG, "Truncated " + file);
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't read " + file, ioe);
+    } catch (URISyntaxException use) {
+      Log.w(TAG, "Bad URI in " + file, use);
+    }
+  }
+
+  // Called holding this
+  private void save() {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(redirects.size());
+        for (Map.Entry<URI,Redirect> entry : redirects.entrySet()) {
+          out.writeUTF(entry.getKey().toString());
+          out.writeUTF(entry.getValue().to.toString());
+          out.writeLong(entry.getValue().storedAt);
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't write " + tempFile, ioe);
+      return;
+    }
+    // Replaced in one step, so that a crash while writing leaves the old file intact
+    if (!tempFile.renameTo(file)) {
+      Log.w(TAG, "Couldn't replace " + file);
+    }
+  }
+
+  private static final class Redirect {
+
+    private final URI to;
+    private final long storedAt;
+
+    Redirect(URI to, long storedAt) {
+      this.to = to;
+      this.storedAt = storedAt;
+    }
+
+  }
+
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.result.supplement;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.zxing.client.android.common.CancellationToken;
+import com.google.zxing.client.android.common.CancelledException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Runs one source's lookup for a scan within a deadline: the earlier of the scan's overall deadline and
+ * the source's own latency budget. When it passes, the lookup is cancelled and fails with a
+ * {@link SocketTimeoutException}.</p>
+ *
+ * <p>Latency and outcome of each source's lookups are recorded. Once a source has enough history, a lookup
+ * still running after the source's 95th percentile latency is hedged: a second identical attempt is started,
+ * the first to succeed is used, and the other is cancelled.</p>
+ */
+final class RetrievalOrchestrator {
+
+  private static final String TAG = RetrievalOrchestrator.class.getSimpleName();
+
+  private static final int MAX_SAMPLES = 100;
+  private static final int MIN_SAMPLES_TO_HEDGE = 20;
+  private static final long MIN_HEDGE_DELAY_MS = 250L;
+
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor();
+  private static final Map<String,SourceStats> STATS = new HashMap<String,SourceStats>(); // guarded by itself
+
+  /**
+   * One try at a lookup, which should stop when the given token is cancelled.
+   */
+  interface Attempt<V> {
+    V run(CancellationToken token) throws IOException;
+  }
+
+  private RetrievalOrchestrator() {
+  }
+
+  /**
+   * Runs the lookup on the calling thread, and any hedged attempt on {@code hedgeExecutor}.
+   *
+   * @param source names the source, under which its latency is recorded
+   * @param scanToken cancels the lookup along with the rest of the scan's
+   * @param scanDeadline when all lookups for the scan must be done, as from {@link SystemClock#elapsedRealtime()}
+   * @param budgetMs how long this source may take
+   */
+  static <V> V call(String source,
+                    CancellationToken scanToken,
+                    long scanDeadline,
+                    long budgetMs,
+                    final Executor hedgeExecutor,
+                    Attempt<V> attempt) throws IOException {
+    long start = SystemClock.elapsedRealtime();
+    long deadline = Math.min(scanDeadline, start + budgetMs);
+    SourceStats stats = getStats(source);
+    final Race<V> race = new Race<V>(attempt);
+    Runnable cancel = new Runnable() {
+      @Override
+      public void run() {
+        race.finish(new CancelledException(), false);
+      }
+    };
+    scanToken.register(cancel);
+    ScheduledFuture<?> timeout = TIMER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        race.finish(new SocketTimeoutException("Deadline exceeded"), true);
+      }
+    }, Math.max(0L, deadline - start), TimeUnit.MILLISECONDS);
+    ScheduledFuture<?> hedge = null;
+    long hedgeDelayMs = stats.getHedgeDelayMs();
+    if (hedgeDelayMs > 0L && start + hedgeDelayMs < deadline) {
+      hedge = TIMER.schedule(new Runnable() {
+        @Override
+        public void run() {
+          hedgeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              race.run(true);
+            }
+          });
+        }
+      }, hedgeDelayMs, TimeUnit.MILLISECONDS);
+    }
+    try {
+      race.run(false);
+      return race.await();
+    } finally {
+      timeout.cancel(false);
+      if (hedge != null) {
+        hedge.cancel(false);
+      }
+      scanToken.unregister(cancel);
+      stats.record(race, SystemClock.elapsedRealtime() - start);
+      Log.i(TAG, source + ": " + race.describeOutcome() + "; " + stats);
+    }
+  }
+
+  private static SourceStats getStats(String source) {
+    synchronized (STATS) {
+      SourceStats stats = STATS.get(source);
+      if (stats == null) {
+        stats = new SourceStats();
+        STATS.put(source, stats);
+      }
+      return stats;
+    }
+  }
+
+  /**
+   * Attempts at one lookup, of which the first to succeed wins.
+   */
+  private static final class Race<V> {
+
+    private final Attempt<V> attempt;
+    private final List<CancellationToken> tokens; // guarded by this
+    private int running; // guarded by this
+    private boolean done; // guarded by this
+    private V result; // guarded by this
+    private IOException failure; // guarded by this
+    private boolean timedOut; // guarded by this
+    private boolean hedged; // guarded by this
+    private boolean wonByHedge; // guarded by this
+
+    Race(Attempt<V> attempt) {
+      this.attempt = attempt;
+      tokens = new ArrayList<CancellationToken>(2);
+    }
+
+    void run(boolean hedge) {
+      CancellationToken token = new CancellationToken();
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        tokens.add(token);
+        running++;
+        hedged |= hedge;
+      }
+      V value = null;
+      IOException error = null;
+      try {
+        value = attempt.run(token);
+      } catch (IOException ioe) {
+        error = ioe;
+      } catch (RuntimeException re) {
+        error = new IOException(re.toString());
+      }
+      List<CancellationToken> losers = null;
+      synchronized (this) {
+        running--;
+        if (!done) {
+          if (error == null) {
+            done = true;
+            result = value;
+            wonByHedge = hedge;
+            losers = new ArrayList<CancellationToken>(tokens);
+            losers.remove(token);
+          } else if (running == 0) {
+            // Nothing else is running that could still succeed
+            done = true;
+            failure = error;
+          }
+          notifyAll();
+        }
+      }
+      if (losers != null) {
+        for (CancellationToken loser : losers) {
+          loser.cancel();
+        }
+      }
+    }
+
+    void finish(IOException failure, boolean timedOut) {
+      List<CancellationToken> toCancel;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        done = true;
+        this.failure = failure;
+        this.timedOut = timedOut;
+        toCancel = new ArrayList<CancellationToken>(tokens);
+        notifyAll();
+      }
+      for (CancellationToken token : toCancel) {
+        token.cancel();
+      }
+    }
+
+    V await() throws IOException {
+      boolean interrupted = false;
+      synchronized (this) {
+        while (!done && !interrupted) {
+          try {
+            wait();
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        finish(new CancelledException(), false);
+      }
+      synchronized (this) {
+        if (failure != null) {
+          throw failure;
+        }
+        return result;
+      }
+    }
+
+    synchronized boolean isSucceeded() {
+      return done && failure == null;
+    }
+
+    synchronized boolean isCancelled() {
+      return failure instanceof CancelledException;
+    }
+
+    synchronized boolean isTimedOut() {
+      return timedOut;
+    }
+
+    synchronized boolean isHedged() {
+      return hedged;
+    }
+
+    synchronized boolean isWonByHedge() {
+      return wonByHedge;
+    }
+
+    synchronized String describeOutcome() {
+      String outcome;
+      if (failure == null) {
+        outcome = wonByHedge ? "succeeded by hedge" : "succeeded";
+      } else if (timedOut) {
+        outcome = "timed out";
+      } else if (failure instanceof CancelledException) {
+        outcome = "cancelled";
+      } else {
+        outcome = "failed";
+      }
+      return hedged && !wonByHedge ? outcome + " (hedged)" : outcome;
+    }
+
+  }
+
+  /**
+   * Latency of a source's recent successful lookups, and counts of how its lookups turned out.
+   */
+  private static final class SourceStats {
+
+    private final long[] latencies; // guarded by this
+    private int samples; // guarded by this
+    private int next; // guarded by this
+    private int succeeded; // guarded by this
+    private int failed; // guarded by this
+    private int timedOut; // guarded by this
+    private int hedged; // guarded by this
+    private int wonByHedge; // guarded by this
+
+    SourceStats() {
+      latencies = new long[MAX_SAMPLES];
+    }
+
+    synchronized void record(Race<?> race, long latencyMs) {
+      if (race.isCancelled()) {
+        // Says nothing about the source
+        return;
+      }
+      if (race.isHedged()) {
+        hedged++;
+      }
+      if (race.isSucceeded()) {
+        succeeded++;
+        if (race.isWonByHedge()) {
+          wonByHedge++;
+        }
+        latencies[next] = latencyMs;
+        next = (next + 1) % latencies.length;
+        samples = Math.min(samples + 1, latencies.length);
+      } else if (race.isTimedOut()) {
+        timedOut++;
+      } else {
+        failed++;
+      }
+    }
+
+    /**
+     * @return how long to wait before hedging a lookup, or -1 if there's too little history to tell
+     */
+    synchronized long getHedgeDelayMs() {
+      if (samples < MIN_SAMPLES_TO_HEDGE) {
+        return -1L;
+      }
+      return Math.max(MIN_HEDGE_DELAY_MS, getP95Ms());
+    }
+
+    // Called holding this
+    private long getP95Ms() {
+      long[] sorted = Arrays.copyOf(latencies, samples);
+      Arrays.sort(sorted);
+      return sorted[(int) Math.ceil(0.95 * samples) - 1];
+    }
+
+    @Override
+    public synchronized String toString() {
+      int total = succeeded + failed + timedOut;
+      return "p95 " + (samples == 0 ? "?" : getP95Ms() + "ms") +
+          ", " + succeeded + '/' + total + " succeeded, " + timedOut + " timed out" +
+          ", " + wonByHedge + '/' + hedged + " won by hedge";
+    }
+
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.result.supplement;
+
+import com.google.zxing.client.android.common.CancelledException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call, and any that arrive
+ * while it is running wait for and share its result, or its failure, rather than making the call again.
+ * If the first caller's call is cancelled, failing with a {@link CancelledException}, those waiting
+ * on it make the call again instead, as it says nothing about whether their own call would succeed.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+final class SingleFlight<K,V> {
+
+  private final Map<K,FutureTask<V>> inFlight; // guarded by itself
+
+  SingleFlight() {
+    inFlight = new HashMap<K,FutureTask<V>>();
+  }
+
+  V execute(K key, Callable<V> call) throws IOException {
+    while (true) {
+      FutureTask<V> task;
+      boolean leader;
+      synchronized (inFlight) {
+        task = inFlight.get(key);
+        leader = task == null;
+        if (leader) {
+          task = new FutureTask<V>(call);
+          inFlight.put(key, task);
+        }
+      }
+      if (leader) {
+        try {
+          task.run();
+        } finally {
+          synchronized (inFlight) {
+            inFlight.remove(key);
+          }
+        }
+      }
+      try {
+        return task.get();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new CancelledException();
+      } catch (ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        if (!leader && cause instanceof CancelledException) {
+          continue;
+        }
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IOException(cause.toString());
+      }
+    }
+  }
+
+}
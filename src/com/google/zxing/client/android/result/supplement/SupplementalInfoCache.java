@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2013 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.result.supplement;
+
+import android.content.Context;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Remembers what each {@link SupplementalInfoRetriever} found for a key, like a product ID or URI, so
+ * that scanning the same thing again needs no network round trip. Results are kept for {@link #TTL_MS},
+ * both in memory, for the {@link #MAX_MEMORY_ENTRIES} most recently used keys, and on disk, for up to
+ * {@link #MAX_DISK_ENTRIES} keys. Finding nothing is remembered too.</p>
+ *
+ * <p>{@link #getCached(String)} only consults memory and may be called from any thread.
+ * The other methods touch the disk and should be called off the main thread.</p>
+ */
+final class SupplementalInfoCache {
+
+  private static final String TAG = SupplementalInfoCache.class.getSimpleName();
+
+  private static final String DIR_NAME = "supplemental";
+  private static final long TTL_MS = 24L * 60L * 60L * 1000L;
+  private static final int MAX_MEMORY_ENTRIES = 64;
+  private static final int MAX_DISK_ENTRIES = 500;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static SupplementalInfoCache instance;
+
+  private final File dir;
+  // Least- to most-recently used
+  private final Map<String,Cached> memory; // guarded by itself
+
+  private SupplementalInfoCache(File dir) {
+    this.dir = dir;
+    memory = new LinkedHashMap<String,Cached>(16, 0.75f, true);
+  }
+
+  static synchronized SupplementalInfoCache getInstance(Context context) {
+    if (instance == null) {
+      instance = new SupplementalInfoCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+    }
+    return instance;
+  }
+
+  /**
+   * @return what was found for the key if it's in memory and unexpired, else {@code null}
+   */
+  List<Entry> getCached(String key) {
+    synchronized (memory) {
+      Cached cached = memory.get(key);
+      if (cached == null) {
+        return null;
+      }
+      if (cached.isExpired()) {
+        memory.remove(key);
+        return null;
+      }
+      return cached.entries;
+    }
+  }
+
+  /**
+   * @return what was found for the key, from memory or else disk, or {@code null} if it's not cached
+   *  or has expired
+   */
+  List<Entry> load(String key) {
+    List<Entry> entries = getCached(key);
+    if (entries != null) {
+      return entries;
+    }
+    File file = fileFor(key);
+    long storedAt = file.lastModified();
+    if (storedAt == 0L) {
+      return null;
+    }
+    if (System.currentTimeMillis() - storedAt > TTL_MS) {
+      delete(file);
+      return null;
+    }
+    try {
+      Reader in = new InputStreamReader(new FileInputStream(file), UTF8);
+      try {
+        JSONObject stored = (JSONObject) new JSONTokener(readFully(in)).nextValue();
+        if (!key.equals(stored.getString("key"))) {
+          return null;
+        }
+        entries = fromJSON(stored.getJSONArray("entries"));
+      } finally {
+        in.close();
+      }
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't read " + file, ioe);
+      return null;
+    } catch (JSONException je) {
+      Log.w(TAG, "Bad cache file " + file, je);
+      delete(file);
+      return null;
+    } catch (ClassCastException cce) {
+      Log.w(TAG, "Bad cache file " + file, cce);
+      delete(file);
+      return null;
+    }
+    remember(key, new Cached(entries, storedAt));
+    return entries;
+  }
+
+  /**
+   * Remembers what was found for the key, replacing anything remembered before.
+   */
+  void put(String key, List<Entry> entries) {
+    entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+    remember(key, new Cached(entries, System.currentTimeMillis()));
+    if (!dir.exists() && !dir.mkdirs()) {
+      Log.w(TAG, "Couldn't make dir " + dir);
+      return;
+    }
+    File file = fileFor(key);
+    try {
+      JSONObject stored = new JSONObject();
+      stored.put("key", key);
+      stored.put("entries", toJSON(entries));
+      OutputStream out = new FileOutputStream(file);
+      Writer writer = new OutputStreamWriter(out, UTF8);
+      try {
+        writer.write(stored.toString());
+      } finally {
+        writer.close();
+      }
+    } catch (IOException ioe) {
+      Log.w(TAG, "Couldn't write " + file, ioe);
+      delete(file);
+      return;
+    } catch (JSONException je) {
+      Log.w(TAG, je);
+      return;
+    }
+    trimDisk();
+  }
+
+  private void remember(String key, Cached cached) {
+    synchronized (memory) {
+      memory.put(key, cached);
+      if (memory.size() > MAX_MEMORY_ENTRIES) {
+        memory.remove(memory.keySet().iterator().next());
+      }
+    }
+  }
+
+  private synchronized void trimDisk() {
+    File[] files = dir.listFiles();
+    if (files == null || files.length <= MAX_DISK_ENTRIES) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long aModified = a.lastModified();
+        long bModified = b.lastModified();
+        return aModified < bModified ? -1 : aModified > bModified ? 1 : 0;
+      }
+    });
+    for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+      delete(files[i]);
+    }
+  }
+
+  private File fileFor(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(key.getBytes(UTF8));
+      StringBuilder name = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        name.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+      }
+      return new File(dir, name.toString());
+    } catch (NoSuchAlgorithmException nsae) {
+      // Can't happen; SHA-1 is always available
+      throw new IllegalStateException(nsae);
+    }
+  }
+
+  private static void delete(File file) {
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Couldn't delete " + file);
+    }
+  }
+
+  private static String readFully(Reader in) throws IOException {
+    StringBuilder result = new StringBuilder();
+    char[] buffer = new char[4096];
+    int charsRead;
+    while ((charsRead = in.read(buffer)) > 0) {
+      result.append(buffer, 0, charsRead);
+    }
+    return result.toString();
+  }
+
+  private static JSONArray toJSON(List<Entry> entries) throws JSONException {
+    JSONArray array = new JSONArray();
+    for (Entry entry : entries) {
+      JSONObject object = new JSONObject();
+      object.put("itemID", entry.itemID);
+      object.putOpt("source", entry.source);
+      JSONArray texts = new JSONArray();
+      for (String text : entry.texts) {
+        texts.put(text);
+      }
+      object.put("texts", texts);
+      object.putOpt("linkURL", entry.linkURL);
+      array.put(object);
+    }
+    return array;
+  }
+
+  private static List<Entry> fromJSON(JSONArray array) throws JSONException {
+    List<Entry> entries = new ArrayList<Entry>(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      JSONObject object = array.getJSONObject(i);
+      JSONArray textsArray = object.getJSONArray("texts");
+      String[] texts = new String[textsArray.length()];
+      for (int j = 0; j < texts.length; j++) {
+        texts[j] = textsArray.getString(j);
+      }
+      entries.add(new Entry(object.getString("itemID"),
+                            object.has("source") ? object.getString("source") : null,
+                            texts,
+                            object.has("linkURL") ? object.getString("linkURL") : null));
+    }
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * One piece of supplemental info, as passed to {@link SupplementalInfoRetriever#append}.
+   */
+  static final class Entry {
+
+    final String itemID;
+    final String source;
+    final String[] texts;
+    final String linkURL;
+
+    Entry(String itemID, String source, String[] texts, String linkURL) {
+      this.itemID = itemID;
+      this.source = source;
+      this.texts = texts;
+      this.linkURL = linkURL;
+    }
+
+  }
+
+  private static final class Cached {
+
+    private final List<Entry> entries;
+    private final long storedAt;
+
+    Cached(List<Entry> entries, long storedAt) {
+      this.entries = entries;
+      this.storedAt = storedAt;
+    }
+
+    boolean isExpired() {
+      return System.currentTimeMillis() - storedAt > TTL_MS;
+    }
+
+  }
+
+}
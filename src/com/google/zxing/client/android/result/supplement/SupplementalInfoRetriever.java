@@ -18,6 +18,7 @@ package com.google.zxing.client.android.result.supplement;
 
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.Spanned;
@@ -30,8 +31,19 @@ import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.google.zxing.client.android.common.CancellationToken;
+import com.google.zxing.client.android.common.CancelledException;
 import com.google.zxing.client.android.common.executor.AsyncTaskExecInterface;
 import com.google.zxing.client.android.common.executor.AsyncTaskExecManager;
 import com.google.zxing.client.android.history.HistoryManager;
@@ -40,36 +52,132 @@ import com.google.zxing.client.result.ParsedResult;
 import com.google.zxing.client.result.ProductParsedResult;
 import com.google.zxing.client.result.URIParsedResult;
 
+/**
+ * <p>Looks up more information about a scan in the background and shows it, and saves it to history.</p>
+ *
+ * <p>Retrievers run on their own small pool of threads, so they don't compete with other background work,
+ * and the pool's queue is bounded; when it's full, the longest-waiting retriever is dropped. Starting
+ * retrieval for a scan cancels any still under way for the previous one, disconnecting their downloads.</p>
+ *
+ * <p>All lookups for a scan must finish within {@link #SCAN_BUDGET_MS}, and each within its retriever's own
+ * {@link #getLatencyBudgetMs()}. See {@link RetrievalOrchestrator}.</p>
+ */
 public abstract class SupplementalInfoRetriever extends AsyncTask<Object,Object,Object> {
 
   private static final String TAG = "SupplementalInfo";
 
+  // Keyed like the cache, so that retrievers looking up the same thing at once share one download
+  private static final SingleFlight<String,List<SupplementalInfoCache.Entry>> IN_FLIGHT =
+      new SingleFlight<String,List<SupplementalInfoCache.Entry>>();
+
+  private static final long SCAN_BUDGET_MS = 8000L;
+  private static final long DEFAULT_LATENCY_BUDGET_MS = 5000L;
+
+  private static final int THREADS = 3;
+  private static final int MAX_QUEUED = 12;
+  private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+      THREADS, THREADS, 30L, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(MAX_QUEUED),
+      new ThreadPoolExecutor.DiscardOldestPolicy());
+  static {
+    EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+  // Hedged attempts run apart from the retrievers, so they never evict or wait behind one. A hedge is only
+  // worth starting at once, so it's dropped if all these threads are busy.
+  private static final int HEDGE_THREADS = 2;
+  private static final ThreadPoolExecutor HEDGE_EXECUTOR = new ThreadPoolExecutor(
+      0, HEDGE_THREADS, 30L, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(),
+      new ThreadPoolExecutor.DiscardPolicy());
+  // Cancels off the main thread, since disconnecting may write to the network
+  private static final Executor CANCELLER = Executors.newSingleThreadExecutor();
+
+  // Only accessed from the main thread
+  private static CancellationToken currentToken;
+
   public static void maybeInvokeRetrieval(TextView textView,
                                           ParsedResult result,
                                           HistoryManager historyManager,
                                           Context context) {
+    cancelRetrieval();
+    CancellationToken token = new CancellationToken();
+    currentToken = token;
+    long deadline = SystemClock.elapsedRealtime() + SCAN_BUDGET_MS;
     AsyncTaskExecInterface taskExec = new AsyncTaskExecManager().build();
+    SupplementalInfoCache cache = SupplementalInfoCache.getInstance(context);
+    Collection<SupplementalInfoRetriever> retrievers = new ArrayList<SupplementalInfoRetriever>();
     if (result instanceof URIParsedResult) {
-      taskExec.execute(new URIResultInfoRetriever(textView, (URIParsedResult) result, historyManager, context));
-      taskExec.execute(new TitleRetriever(textView, (URIParsedResult) result, historyManager));
+      retrievers.add(new URIResultInfoRetriever(textView, (URIParsedResult) result, historyManager, context));
+      retrievers.add(new TitleRetriever(textView, (URIParsedResult) result, historyManager));
     } else if (result instanceof ProductParsedResult) {
       ProductParsedResult productParsedResult = (ProductParsedResult) result;
       String productID = productParsedResult.getProductID();
       String normalizedProductID = productParsedResult.getNormalizedProductID();
-      taskExec.execute(new ProductResultInfoRetriever(textView, productID, historyManager, context));
+      retrievers.add(new OfflineCatalogRetriever(textView, normalizedProductID, historyManager, context));
+      retrievers.add(new ProductResultInfoRetriever(textView, productID, historyManager, context));
       switch (productID.length()) {
         case 12:
-          taskExec.execute(new AmazonInfoRetriever(textView, "UPC", normalizedProductID, historyManager, context));      
+          retrievers.add(new AmazonInfoRetriever(textView, "UPC", normalizedProductID, historyManager, context));
           break;
         case 13:
-          taskExec.execute(new AmazonInfoRetriever(textView, "EAN", normalizedProductID, historyManager, context)); 
+          retrievers.add(new AmazonInfoRetriever(textView, "EAN", normalizedProductID, historyManager, context));
           break;
       }
     } else if (result instanceof ISBNParsedResult) {
       String isbn = ((ISBNParsedResult) result).getISBN();
-      taskExec.execute(new ProductResultInfoRetriever(textView, isbn, historyManager, context));
-      taskExec.execute(new BookResultInfoRetriever(textView, isbn, historyManager, context));
-      taskExec.execute(new AmazonInfoRetriever(textView, "ISBN", isbn, historyManager, context));      
+      retrievers.add(new OfflineCatalogRetriever(textView, isbn, historyManager, context));
+      retrievers.add(new ProductResultInfoRetriever(textView, isbn, historyManager, context));
+      retrievers.add(new BookResultInfoRetriever(textView, isbn, historyManager, context));
+      retrievers.add(new AmazonInfoRetriever(textView, "ISBN", isbn, historyManager, context));
+    }
+    for (SupplementalInfoRetriever retriever : retrievers) {
+      retrieve(taskExec, cache, token, deadline, retriever);
+    }
+  }
+
+  /**
+   * Cancels retrieval for the last scan, if any is still under way. Must be called from the main thread.
+   */
+  public static void cancelRetrieval() {
+    final CancellationToken token = currentToken;
+    if (token != null) {
+      currentToken = null;
+      CANCELLER.execute(new Runnable() {
+        @Override
+        public void run() {
+          token.cancel();
+          EXECUTOR.purge();
+        }
+      });
+    }
+  }
+
+  /**
+   * Shows what the retriever found before, if it's cached in memory, and otherwise runs it.
+   */
+  private static void retrieve(AsyncTaskExecInterface taskExec,
+                               SupplementalInfoCache cache,
+                               CancellationToken token,
+                               long deadline,
+                               final SupplementalInfoRetriever retriever) {
+    retriever.cache = cache;
+    retriever.token = token;
+    retriever.deadline = deadline;
+    List<SupplementalInfoCache.Entry> cached =
+        retriever.isCacheable() ? cache.getCached(retriever.getFullCacheKey()) : null;
+    if (cached == null) {
+      token.register(new Runnable() {
+        @Override
+        public void run() {
+          retriever.cancel(true);
+        }
+      });
+      taskExec.execute(EXECUTOR, retriever);
+    } else {
+      for (SupplementalInfoCache.Entry entry : cached) {
+        retriever.add(entry);
+      }
+      retriever.publish();
     }
   }
 
@@ -77,26 +185,71 @@ public abstract class SupplementalInfoRetriever extends AsyncTask<Object,Object,
   private final WeakReference<HistoryManager> historyManagerRef;
   private final List<Spannable> newContents;
   private final List<String[]> newHistories;
+  // State of the attempt at retrieval running on the current thread; there may be more than one at once
+  private final ThreadLocal<AttemptState> currentAttempt;
+  private SupplementalInfoCache cache;
+  private CancellationToken token;
+  private long deadline;
 
   SupplementalInfoRetriever(TextView textView, HistoryManager historyManager) {
     textViewRef = new WeakReference<TextView>(textView);
     historyManagerRef = new WeakReference<HistoryManager>(historyManager);
     newContents = new ArrayList<Spannable>();
     newHistories = new ArrayList<String[]>();
+    currentAttempt = new ThreadLocal<AttemptState>();
   }
 
   @Override
   public final Object doInBackground(Object... args) {
+    final String key = getFullCacheKey();
+    List<SupplementalInfoCache.Entry> entries;
     try {
-      retrieveSupplementalInfo();
+      entries = IN_FLIGHT.execute(key, new Callable<List<SupplementalInfoCache.Entry>>() {
+        @Override
+        public List<SupplementalInfoCache.Entry> call() throws IOException {
+          if (isCacheable()) {
+            List<SupplementalInfoCache.Entry> cached = cache.load(key);
+            if (cached != null) {
+              return cached;
+            }
+          }
+          List<SupplementalInfoCache.Entry> retrieved = RetrievalOrchestrator.call(
+              getClass().getSimpleName(),
+              token,
+              deadline,
+              getLatencyBudgetMs(),
+              HEDGE_EXECUTOR,
+              new RetrievalOrchestrator.Attempt<List<SupplementalInfoCache.Entry>>() {
+                @Override
+                public List<SupplementalInfoCache.Entry> run(CancellationToken attemptToken) throws IOException {
+                  return retrieveAttempt(attemptToken);
+                }
+              });
+          if (isCacheable()) {
+            cache.put(key, retrieved);
+          }
+          return retrieved;
+        }
+      });
+    } catch (CancelledException ce) {
+      Log.i(TAG, "Cancelled " + key);
+      return null;
     } catch (IOException e) {
       Log.w(TAG, e);
+      return null;
+    }
+    for (SupplementalInfoCache.Entry entry : entries) {
+      add(entry);
     }
     return null;
   }
 
   @Override
   protected final void onPostExecute(Object arg) {
+    publish();
+  }
+
+  private void publish() {
     TextView textView = textViewRef.get();
     if (textView != null) {
       for (Spannable content : newContents) {
@@ -106,15 +259,75 @@ public abstract class SupplementalInfoRetriever extends AsyncTask<Object,Object,
     }
     HistoryManager historyManager = historyManagerRef.get();
     if (historyManager != null) {
+      // Everything this retriever found about an item is stored as one entry, under its own name
+      Map<String,StringBuilder> detailsByItem = new LinkedHashMap<String,StringBuilder>();
       for (String[] text : newHistories) {
-        historyManager.addHistoryItemDetails(text[0], text[1]);
+        StringBuilder details = detailsByItem.get(text[0]);
+        if (details == null) {
+          detailsByItem.put(text[0], new StringBuilder(text[1]));
+        } else {
+          details.append(" : ").append(text[1]);
+        }
+      }
+      String source = getClass().getSimpleName();
+      for (Map.Entry<String,StringBuilder> entry : detailsByItem.entrySet()) {
+        historyManager.addHistoryItemDetails(entry.getKey(), source, entry.getValue().toString());
       }
     }
   }
 
+  private List<SupplementalInfoCache.Entry> retrieveAttempt(CancellationToken attemptToken) throws IOException {
+    AttemptState attempt = new AttemptState(attemptToken);
+    currentAttempt.set(attempt);
+    try {
+      retrieveSupplementalInfo();
+    } finally {
+      currentAttempt.remove();
+    }
+    return attempt.entries;
+  }
+
   abstract void retrieveSupplementalInfo() throws IOException;
 
+  /**
+   * @return identifies what this retriever looks up, like a product ID or URI, for caching what it finds
+   */
+  abstract String getCacheKey();
+
+  /**
+   * @return whether what this retriever finds should be kept in {@link SupplementalInfoCache}
+   */
+  boolean isCacheable() {
+    return true;
+  }
+
+  /**
+   * @return how long this retriever's lookup may take, in milliseconds
+   */
+  long getLatencyBudgetMs() {
+    return DEFAULT_LATENCY_BUDGET_MS;
+  }
+
+  /**
+   * @return cancelled when this attempt's results are no longer wanted; pass to {@code HttpHelper}
+   */
+  final CancellationToken getCancellationToken() {
+    return currentAttempt.get().token;
+  }
+
+  private String getFullCacheKey() {
+    return getClass().getSimpleName() + ':' + getCacheKey();
+  }
+
   final void append(String itemID, String source, String[] newTexts, String linkURL) {
+    currentAttempt.get().entries.add(new SupplementalInfoCache.Entry(itemID, source, newTexts, linkURL));
+  }
+
+  private void add(SupplementalInfoCache.Entry entry) {
+    String itemID = entry.itemID;
+    String source = entry.source;
+    String[] newTexts = entry.texts;
+    String linkURL = entry.linkURL;
 
     StringBuilder newTextCombined = new StringBuilder();
 
@@ -177,4 +390,16 @@ public abstract class SupplementalInfoRetriever extends AsyncTask<Object,Object,
     }
   }
 
+  private static final class AttemptState {
+
+    private final CancellationToken token;
+    private final List<SupplementalInfoCache.Entry> entries;
+
+    AttemptState(CancellationToken token) {
+      this.token = token;
+      entries = new ArrayList<SupplementalInfoCache.Entry>();
+    }
+
+  }
+
 }
@@ -22,8 +22,6 @@ import com.google.zxing.client.android.history.HistoryManager;
 import com.google.zxing.client.result.URIParsedResult;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Retrieves the title of a web page as supplemental info.
@@ -32,8 +30,10 @@ import java.util.regex.Pattern;
  */
 final class TitleRetriever extends SupplementalInfoRetriever {
 
-  private static final Pattern TITLE_PATTERN = Pattern.compile("<title>([^<]+)");
+  private static final int MAX_CHARS = 4096;
   private static final int MAX_TITLE_LEN = 100;
+  // Only a title is wanted, so give up sooner than for a product lookup
+  private static final long LATENCY_BUDGET_MS = 3000L;
 
   private final String httpUrl;
 
@@ -43,25 +43,31 @@ final class TitleRetriever extends SupplementalInfoRetriever {
   }
 
   @Override
-  void retrieveSupplementalInfo() {
-    CharSequence contents;
+  long getLatencyBudgetMs() {
+    return LATENCY_BUDGET_MS;
+  }
+
+  @Override
+  String getCacheKey() {
+    return httpUrl;
+  }
+
+  @Override
+  void retrieveSupplementalInfo() throws IOException {
+    // Failure is thrown rather than ignored, so that it isn't cached as the page having no title
+    HttpHelper.Body body = HttpHelper.openStream(httpUrl, HttpHelper.ContentType.HTML, getCancellationToken());
+    String title;
     try {
-      contents = HttpHelper.downloadViaHttp(httpUrl, HttpHelper.ContentType.HTML, 4096);
-    } catch (IOException ioe) {
-      // ignore this
-      return;
+      // Reading stops at the end of the title, and closing then drops the connection and the rest of the page
+      title = new HtmlScanner(body, body.getCharset()).findElementText("title", MAX_CHARS);
+    } finally {
+      body.close();
     }
-    if (contents != null && contents.length() > 0) {
-      Matcher m = TITLE_PATTERN.matcher(contents);
-      if (m.find()) {
-        String title = m.group(1);
-        if (title != null && !title.isEmpty()) {
-          if (title.length() > MAX_TITLE_LEN) {
-            title = title.substring(0, MAX_TITLE_LEN) + "...";
-          }
-          append(httpUrl, null, new String[] {title}, httpUrl);
-        }
+    if (title != null && !title.isEmpty()) {
+      if (title.length() > MAX_TITLE_LEN) {
+        title = title.substring(0, MAX_TITLE_LEN) + "...";
       }
+      append(httpUrl, null, new String[] {title}, httpUrl);
     }
   }
 
@@ -30,14 +30,28 @@ import java.net.URISyntaxException;
 final class URIResultInfoRetriever extends SupplementalInfoRetriever {
 
   private static final int MAX_REDIRECTS = 5;
+  // Covers every hop of the redirect chain
+  private static final long LATENCY_BUDGET_MS = 3000L;
 
   private final URIParsedResult result;
   private final String redirectString;
+  private final RedirectCache redirects;
 
   URIResultInfoRetriever(TextView textView, URIParsedResult result, HistoryManager historyManager, Context context) {
     super(textView, historyManager);
     redirectString = context.getString(R.string.msg_redirect);
     this.result = result;
+    redirects = RedirectCache.getInstance(context);
+  }
+
+  @Override
+  long getLatencyBudgetMs() {
+    return LATENCY_BUDGET_MS;
+  }
+
+  @Override
+  String getCacheKey() {
+    return result.getURI();
   }
 
   @Override
@@ -48,7 +62,7 @@ final class URIResultInfoRetriever extends SupplementalInfoRetriever {
     } catch (URISyntaxException ignored) {
       return;
     }
-    URI newURI = HttpHelper.unredirect(oldURI);
+    URI newURI = unredirect(oldURI);
     int count = 0;
     while (count++ < MAX_REDIRECTS && !oldURI.equals(newURI)) {
       append(result.getDisplayResult(), 
@@ -56,8 +70,19 @@ final class URIResultInfoRetriever extends SupplementalInfoRetriever {
              new String[] { redirectString + " : " + newURI }, 
              newURI.toString());
       oldURI = newURI;
-      newURI = HttpHelper.unredirect(newURI);
+      newURI = unredirect(newURI);
+    }
+  }
+
+  private URI unredirect(URI uri) throws IOException {
+    URI redirect = redirects.get(uri);
+    if (redirect == null) {
+      redirect = HttpHelper.unredirect(uri, getCancellationToken());
+      if (HttpHelper.isRedirector(uri)) {
+        redirects.put(uri, redirect);
+      }
     }
+    return redirect;
   }
 
 }